@@ -0,0 +1,114 @@
+package com.holmsted.file;
+
+import io.airlift.compress.zstd.ZstdInputStream;
+import io.airlift.compress.zstd.ZstdOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * The compression formats of data files, recognized by their filename extension.
+ */
+public enum Compression {
+    NONE("") {
+        @Nonnull
+        @Override
+        public InputStream decompress(@Nonnull InputStream inputStream) {
+            return inputStream;
+        }
+
+        @Nonnull
+        @Override
+        public OutputStream compress(@Nonnull OutputStream outputStream) {
+            return outputStream;
+        }
+    },
+    GZIP(".gz") {
+        @Nonnull
+        @Override
+        public InputStream decompress(@Nonnull InputStream inputStream) throws IOException {
+            return new GZIPInputStream(inputStream, BUFFER_SIZE);
+        }
+
+        @Nonnull
+        @Override
+        public OutputStream compress(@Nonnull OutputStream outputStream) throws IOException {
+            return new GZIPOutputStream(outputStream, BUFFER_SIZE);
+        }
+    },
+    ZSTD(".zst") {
+        @Nonnull
+        @Override
+        public InputStream decompress(@Nonnull InputStream inputStream) {
+            return new ZstdInputStream(inputStream);
+        }
+
+        @Nonnull
+        @Override
+        public OutputStream compress(@Nonnull OutputStream outputStream) throws IOException {
+            return new ZstdOutputStream(outputStream);
+        }
+    };
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Nonnull
+    private final String extension;
+
+    Compression(@Nonnull String extension) {
+        this.extension = extension;
+    }
+
+    /**
+     * Returns the extension appended to the names of files in this format, e.g. ".gz".
+     */
+    @Nonnull
+    public String getExtension() {
+        return extension;
+    }
+
+    @Nonnull
+    public abstract InputStream decompress(@Nonnull InputStream inputStream) throws IOException;
+
+    @Nonnull
+    public abstract OutputStream compress(@Nonnull OutputStream outputStream) throws IOException;
+
+    /**
+     * Returns the format of the given file, by its extension.
+     */
+    @Nonnull
+    public static Compression fromFilename(@Nonnull String filename) {
+        for (Compression compression : values()) {
+            if (compression != NONE && filename.endsWith(compression.extension)) {
+                return compression;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Returns the format with the given name, e.g. "gzip", or null if there is no such format.
+     */
+    @Nullable
+    public static Compression fromName(@Nonnull String name) {
+        for (Compression compression : values()) {
+            if (compression.name().equalsIgnoreCase(name)) {
+                return compression;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns whether the file is a json file, possibly compressed.
+     */
+    public static boolean isJsonFilename(@Nonnull String filename) {
+        return filename.endsWith(".json" + fromFilename(filename).extension);
+    }
+}
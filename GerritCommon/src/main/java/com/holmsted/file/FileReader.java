@@ -1,39 +1,58 @@
 package com.holmsted.file;
 
+import com.google.common.io.ByteStreams;
+
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
-import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 public final class FileReader {
 
+    /**
+     * Reads the whole file as UTF-8 text, or returns null if it cannot be read.
+     * The bytes are decoded at once, without growing the text piece by piece.
+     */
     @Nullable
     public static String readFile(@Nonnull String filename) {
-        File dataFile = new File(filename);
-        FileInputStream inputStream;
-        try {
-            inputStream = new FileInputStream(dataFile);
-            StringBuilder output = new StringBuilder();
-
-            final char[] buffer = new char[1024];
-            Reader reader = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
-            int numberCharRead;
-            while ((numberCharRead = reader.read(buffer)) != -1) {
-                output.append(buffer, 0, numberCharRead);
-            }
-            reader.close();
-            return output.toString();
+        try (InputStream inputStream = openInputStream(filename)) {
+            return new String(ByteStreams.toByteArray(inputStream), StandardCharsets.UTF_8);
         } catch (IOException e) {
             e.printStackTrace();
         }
         return null;
     }
 
+    /**
+     * Opens the file for reading as UTF-8 text. A file compressed with one of
+     * the {@link Compression} formats is decompressed while it is being read.
+     */
+    @Nonnull
+    public static BufferedReader openFile(@Nonnull String filename) throws IOException {
+        return new BufferedReader(new InputStreamReader(openInputStream(filename), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Opens the file for reading its bytes, decompressing them if the file is compressed with one of
+     * the {@link Compression} formats.
+     */
+    @Nonnull
+    public static InputStream openInputStream(@Nonnull String filename) throws IOException {
+        InputStream inputStream = new BufferedInputStream(new FileInputStream(filename));
+        try {
+            return Compression.fromFilename(filename).decompress(inputStream);
+        } catch (IOException e) {
+            inputStream.close();
+            throw e;
+        }
+    }
+
     private FileReader() {
     }
 }
@@ -0,0 +1,226 @@
+package com.holmsted.gerrit;
+
+import com.holmsted.file.FileReader;
+import com.holmsted.file.FileWriter;
+import com.holmsted.json.JsonUtils;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Describes the files GerritDownloader has written into an output directory: for each file,
+ * the project, the number of commits and bytes, the range of the created and last updated dates,
+ * the branches and a hash of the file contents.
+ * <p>
+ * GerritStats uses it to skip files that cannot contain any commits it would analyze, without reading them.
+ * An entry only describes the file as long as its size and modification time match; a file changed since
+ * the manifest was written is read as usual. The content hash identifies the data of a file, e.g. as a cache key.
+ * <p>
+ * The manifest is stored as a small json file next to the downloaded data. Rather than after each change,
+ * it is written after every few changes and by {@link #flush()}, so that recording many files does not
+ * write it over and over; an entry that was not written describes a file the manifest has no entry of,
+ * or an older entry of, and the file is read as usual. Workers downloading projects in parallel share
+ * one instance, so all access is synchronized.
+ */
+public final class DownloadManifest {
+
+    public static final String MANIFEST_FILENAME = ".gerritstats-manifest.json";
+
+    private static final int MANIFEST_FORMAT_VERSION = 1;
+    private static final String FILES_KEY = "files";
+    private static final String MIN_KEY = "min";
+    private static final String MAX_KEY = "max";
+    private static final int UNKNOWN_LAST_MODIFIED = -1;
+    private static final int CHANGES_PER_WRITE = 64;
+
+    @Nonnull
+    private final File manifestFile;
+    @Nonnull
+    private final JSONObject files;
+    private int unwrittenChangeCount;
+
+    /**
+     * The description of a single output file. Dates are in seconds since the epoch, as in the downloaded data.
+     */
+    public static class FileEntry {
+        @Nonnull
+        public final String projectName;
+        public final int commitCount;
+        public final long byteCount;
+        public final long lastModified;
+        public final long minCreatedOn;
+        public final long maxCreatedOn;
+        public final long minLastUpdated;
+        public final long maxLastUpdated;
+        @Nonnull
+        public final Set<String> branches;
+        @Nonnull
+        public final String contentHash;
+
+        @SuppressWarnings("PMD.ExcessiveParameterList")
+        public FileEntry(@Nonnull String projectName,
+                         int commitCount,
+                         long byteCount,
+                         long lastModified,
+                         long minCreatedOn,
+                         long maxCreatedOn,
+                         long minLastUpdated,
+                         long maxLastUpdated,
+                         @Nonnull Collection<String> branches,
+                         @Nonnull String contentHash) {
+            this.projectName = projectName;
+            this.commitCount = commitCount;
+            this.byteCount = byteCount;
+            this.lastModified = lastModified;
+            this.minCreatedOn = minCreatedOn;
+            this.maxCreatedOn = maxCreatedOn;
+            this.minLastUpdated = minLastUpdated;
+            this.maxLastUpdated = maxLastUpdated;
+            this.branches = Collections.unmodifiableSet(new TreeSet<>(branches));
+            this.contentHash = contentHash;
+        }
+
+        /**
+         * Returns whether the entry still describes the file, i.e. the file has the recorded size
+         * and modification time.
+         */
+        public boolean isCurrent(@Nonnull File file) {
+            return lastModified != UNKNOWN_LAST_MODIFIED
+                    && file.length() == byteCount
+                    && file.lastModified() == lastModified;
+        }
+
+        @Nonnull
+        JSONObject toJson() {
+            return new JSONObject()
+                    .put("project", projectName)
+                    .put("commits", commitCount)
+                    .put("bytes", byteCount)
+                    .put("lastModified", lastModified)
+                    .put("createdOn", new JSONObject().put(MIN_KEY, minCreatedOn).put(MAX_KEY, maxCreatedOn))
+                    .put("lastUpdated", new JSONObject().put(MIN_KEY, minLastUpdated).put(MAX_KEY, maxLastUpdated))
+                    .put("branches", new JSONArray(branches))
+                    .put("sha256", contentHash);
+        }
+
+        @Nonnull
+        static FileEntry fromJson(@Nonnull JSONObject json) {
+            JSONObject createdOn = json.getJSONObject("createdOn");
+            JSONObject lastUpdated = json.getJSONObject("lastUpdated");
+            return new FileEntry(json.getString("project"),
+                    json.getInt("commits"),
+                    json.getLong("bytes"),
+                    json.optLong("lastModified", UNKNOWN_LAST_MODIFIED),
+                    createdOn.getLong(MIN_KEY),
+                    createdOn.getLong(MAX_KEY),
+                    lastUpdated.getLong(MIN_KEY),
+                    lastUpdated.getLong(MAX_KEY),
+                    JsonUtils.readStringArray(json.getJSONArray("branches")),
+                    json.getString("sha256"));
+        }
+    }
+
+    private DownloadManifest(@Nonnull File manifestFile, @Nonnull JSONObject files) {
+        this.manifestFile = manifestFile;
+        this.files = files;
+    }
+
+    /**
+     * Reads the manifest of the given directory. A missing or unreadable manifest results
+     * in an empty one, so that all files are read.
+     */
+    @Nonnull
+    public static DownloadManifest load(@Nonnull String dir) {
+        File manifestFile = new File(dir, MANIFEST_FILENAME);
+        JSONObject files = new JSONObject();
+        String data = manifestFile.isFile() ? FileReader.readFile(manifestFile.getPath()) : null;
+        try {
+            JSONObject storedFiles = data != null
+                    ? JsonUtils.readJsonString(data).optJSONObject(FILES_KEY) : null;
+            if (storedFiles != null) {
+                files = storedFiles;
+            }
+        } catch (JSONException e) {
+            System.err.println(String.format("Ignoring unreadable manifest file '%s'", manifestFile));
+        }
+        return new DownloadManifest(manifestFile, files);
+    }
+
+    /**
+     * Returns the entry of the file with the given name in the directory, or null if there is none.
+     */
+    @Nullable
+    public FileEntry getEntry(@Nonnull String filename) {
+        synchronized (files) {
+            JSONObject entry = files.optJSONObject(filename);
+            try {
+                return entry != null ? FileEntry.fromJson(entry) : null;
+            } catch (JSONException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Records the entry of the file with the given name in the directory.
+     */
+    public void setEntry(@Nonnull String filename, @Nonnull FileEntry entry) throws IOException {
+        synchronized (files) {
+            files.put(filename, entry.toJson());
+            onChanged();
+        }
+    }
+
+    /**
+     * Removes the entry of the file with the given name, if any.
+     */
+    public void removeEntry(@Nonnull String filename) throws IOException {
+        synchronized (files) {
+            if (files.remove(filename) != null) {
+                onChanged();
+            }
+        }
+    }
+
+    /**
+     * Writes the changes not written yet.
+     */
+    public void flush() throws IOException {
+        synchronized (files) {
+            if (unwrittenChangeCount > 0) {
+                write();
+            }
+        }
+    }
+
+    private void onChanged() throws IOException {
+        ++unwrittenChangeCount;
+        if (unwrittenChangeCount >= CHANGES_PER_WRITE) {
+            write();
+        }
+    }
+
+    private void write() throws IOException {
+        JSONObject root = new JSONObject();
+        root.put("version", MANIFEST_FORMAT_VERSION);
+        root.put(FILES_KEY, files);
+
+        File tempFile = new File(manifestFile.getPath() + ".tmp");
+        FileWriter.writeFile(tempFile.getPath(), root.toString(2));
+        Files.move(tempFile.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        unwrittenChangeCount = 0;
+    }
+}
@@ -8,6 +8,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 public final class JsonUtils {
 
@@ -16,10 +17,13 @@ public final class JsonUtils {
         return new JSONObject(new JSONTokener(jsonString));
     }
 
+    /**
+     * Returns the strings in the array, or an empty list if the array is missing.
+     */
     @Nonnull
-    public static List<String> readStringArray(JSONArray array) {
+    public static List<String> readStringArray(@Nullable JSONArray array) {
         List<String> list = new ArrayList<>();
-        for (int i = 0; i < array.length(); ++i) {
+        for (int i = 0; array != null && i < array.length(); ++i) {
             list.add(array.getString(i));
         }
         return list;
@@ -4,10 +4,16 @@ import com.beust.jcommander.IStringConverter;
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParameterException;
+import com.holmsted.file.Compression;
+import com.holmsted.gerrit.downloaders.DownloadProfile;
+import com.holmsted.gerrit.downloaders.RequestGovernor;
+import com.holmsted.gerrit.downloaders.ssh.GerritSshSession;
 import com.holmsted.gerrit.downloaders.ssh.SshDownloader;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.text.ParseException;
@@ -20,15 +26,19 @@ import java.util.jar.Manifest;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
-@SuppressWarnings("unused")
+@SuppressWarnings({"unused", "PMD.TooManyFields"})
 public class CommandLineParser {
 
     private static final String DEFAULT_OUTPUT_DIR = "out";
+    private static final int DEFAULT_PAGES_IN_FLIGHT = 1;
+    private static final int DEFAULT_WINDOWS_IN_FLIGHT = 4;
 
     @Parameter(names = {"-s", "--server"},
             description = "Download from Gerrit server name and port, in format server:port. "
                     + "Some servers require a username; e.g., mylogin@gerrit.project.org. "
-                    + "If port is omitted, defaults to 29418.",
+                    + "If port is omitted, defaults to 29418. "
+                    + "To download over the REST API instead of SSH, pass the server URL, "
+                    + "e.g. https://gerrit.project.org/r.",
             arity = 1,
             required = true,
             converter = ServerAndPort.Converter.class)
@@ -71,16 +81,132 @@ public class CommandLineParser {
             converter = DateConverter.class)
      private String beforeDate;
 
+    @Parameter(names = {"--parallelism"},
+            description = "The number of projects to download concurrently. "
+            + "Each project is still written into its own file.")
+    private int parallelism = 1; // NOPMD
+
+    @Parameter(names = {"--project-timeout"},
+            description = "If specified, downloading a single project is stopped after this many minutes, "
+            + "and the data downloaded so far is written. This keeps one slow project "
+            + "from holding up the others when downloading in parallel.")
+    private int projectTimeoutMinutes;
+
+    @Parameter(names = {"--ssh-executable"},
+            description = "The ssh client used to connect to the server. Defaults to 'ssh' in the PATH.")
+    private String sshExecutable = GerritSshSession.DEFAULT_SSH_EXECUTABLE; // NOPMD
+
+    @Parameter(names = {"--no-ssh-multiplexing"},
+            description = "If specified, each Gerrit command opens its own SSH connection "
+            + "instead of sharing one long-lived connection.")
+    private boolean noSshMultiplexing;
+
+    @Parameter(names = {"--incremental"},
+            description = "If specified, only changes updated since the previous download into the same "
+            + "output directory are downloaded, and merged into the existing output files.")
+    private boolean incremental;
+
+    @Parameter(names = {"--http-user"},
+            description = "The username for the REST API. If set, authenticated /a/ endpoints are used.")
+    private String httpUser;
+
+    @Parameter(names = {"--http-password"},
+            description = "The HTTP password for the REST API. If omitted, "
+            + "the GERRIT_HTTP_PASSWORD environment variable is used.")
+    private String httpPassword;
+
+    @Parameter(names = {"--pages-in-flight"},
+            description = "The number of query result pages of a single project requested at once. "
+            + "Defaults to 1; raise it only if the server can take the extra load. "
+            + "Used with the REST API, and with SSH on Gerrit 2.9 and newer.")
+    private int pagesInFlight = DEFAULT_PAGES_IN_FLIGHT; // NOPMD
+
+    @Parameter(names = {"--shard-size"},
+            description = "If specified, a project with more changes than this is downloaded as several "
+            + "date windows of at most this many changes each, read --windows-in-flight at a time. "
+            + "Used with SSH on Gerrit 2.9 and newer, when --limit is not given.")
+    private int shardSize;
+
+    @Parameter(names = {"--windows-in-flight"},
+            description = "The number of date windows of a single project read at once with --shard-size, "
+            + "each a page at a time. Defaults to " + DEFAULT_WINDOWS_IN_FLIGHT + ".")
+    private int windowsInFlight = DEFAULT_WINDOWS_IN_FLIGHT; // NOPMD
+
+    @Parameter(names = {"--compression"},
+            description = "Compresses the output files with the given format: none, gzip or zstd. "
+            + "The files are named e.g. project.json.gz, and can be read by GerritStats as is.",
+            converter = CompressionConverter.class)
+    private Compression compression = Compression.NONE; // NOPMD
+
+    @Parameter(names = {"--profile"},
+            description = "Which data is kept of each change: full, or slim, which drops the fields "
+            + "GerritStats does not use, such as commit and change messages. Saves disk space only; "
+            + "the server still sends the full changes.",
+            converter = ProfileConverter.class)
+    private DownloadProfile profile = DownloadProfile.FULL; // NOPMD
+
+    @Parameter(names = {"--max-concurrent-requests"},
+            description = "The highest number of requests made to the server at once, over all projects. "
+            + "Lowered automatically while requests fail or the server slows down. "
+            + "Defaults to --parallelism times --pages-in-flight, or times --windows-in-flight if that is "
+            + "higher and --shard-size is given, and twice that with the REST API.")
+    private int maxConcurrentRequests;
+
+    @Parameter(names = {"--max-requests-per-second"},
+            description = "If specified, at most this many requests are started per second.")
+    private double maxRequestsPerSecond;
+
+    @Parameter(names = {"--max-retries"},
+            description = "How many times a failed request is retried before the project is given up.")
+    private int maxRetries = RequestGovernor.DEFAULT_MAX_RETRIES; // NOPMD
+
+    @Parameter(names = {"--progress"},
+            description = "If specified, a line about the download progress is printed every few seconds.")
+    private boolean progress;
+
+    @Parameter(names = {"--resume"},
+            description = "If specified, the pages read are journaled, and a download that failed or was stopped "
+            + "continues from the last page it completed, as long as it was started with --resume "
+            + "and the same options.")
+    private boolean resume;
+
     @Nonnull
     private final JCommander jCommander = new JCommander(this);
 
+    public static class CompressionConverter implements IStringConverter<Compression> {
+        @Override
+        public Compression convert(String value) {
+            Compression compression = Compression.fromName(value);
+            if (compression == null) {
+                throw new ParameterException("Unknown compression format: " + value);
+            }
+            return compression;
+        }
+    }
+
+    public static class ProfileConverter implements IStringConverter<DownloadProfile> {
+        @Override
+        public DownloadProfile convert(String value) {
+            DownloadProfile profile = DownloadProfile.fromName(value);
+            if (profile == null) {
+                throw new ParameterException("Unknown profile: " + value);
+            }
+            return profile;
+        }
+    }
+
     public static class ServerAndPort {
         private String serverName;
         private int serverPort;
+        private String serverUrl;
 
         public static class Converter implements IStringConverter<ServerAndPort> {
             @Override
             public ServerAndPort convert(String value) {
+                if (value.startsWith("http://") || value.startsWith("https://")) {
+                    return convertUrl(value);
+                }
+
                 ServerAndPort result = new ServerAndPort();
 
                 int protocolSeparator = value.indexOf("://");
@@ -99,6 +225,19 @@ public class CommandLineParser {
 
                 return result;
             }
+
+            private static ServerAndPort convertUrl(String value) {
+                try {
+                    URI uri = new URI(value);
+                    ServerAndPort result = new ServerAndPort();
+                    result.serverName = uri.getHost();
+                    result.serverPort = uri.getPort() != -1 ? uri.getPort() : 0;
+                    result.serverUrl = value.endsWith("/") ? value.substring(0, value.length() - 1) : value;
+                    return result;
+                } catch (URISyntaxException e) {
+                    throw new ParameterException("Bad server URL " + value, e);
+                }
+            }
         }
     }
 
@@ -180,6 +319,15 @@ public class CommandLineParser {
         return serverAndPort != null ? serverAndPort.serverPort : 0;
     }
 
+    /**
+     * Returns the http(s) URL of the server if one was given, in which case the REST API is used
+     * instead of SSH.
+     */
+    @Nullable
+    public String getServerUrl() {
+        return serverAndPort != null ? serverAndPort.serverUrl : null;
+    }
+
     public int getCommitLimit() {
         return limit;
     }
@@ -192,6 +340,85 @@ public class CommandLineParser {
         return beforeDate;
     }
 
+    public int getParallelism() {
+        return Math.max(1, parallelism);
+    }
+
+    public int getProjectTimeoutMinutes() {
+        return projectTimeoutMinutes;
+    }
+
+    @Nonnull
+    public String getSshExecutable() {
+        return sshExecutable;
+    }
+
+    public boolean isSshMultiplexingEnabled() {
+        return !noSshMultiplexing;
+    }
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    @Nullable
+    public String getHttpUser() {
+        return httpUser;
+    }
+
+    @Nullable
+    public String getHttpPassword() {
+        return httpPassword != null ? httpPassword : System.getenv("GERRIT_HTTP_PASSWORD");
+    }
+
+    public int getPagesInFlight() {
+        return Math.max(1, pagesInFlight);
+    }
+
+    public int getShardSize() {
+        return Math.max(0, shardSize);
+    }
+
+    public int getWindowsInFlight() {
+        return Math.max(1, windowsInFlight);
+    }
+
+    @Nonnull
+    public Compression getCompression() {
+        return compression;
+    }
+
+    @Nonnull
+    public DownloadProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Returns the highest number of concurrent requests, or 0 if not set.
+     */
+    public int getMaxConcurrentRequests() {
+        return Math.max(0, maxConcurrentRequests);
+    }
+
+    /**
+     * Returns the highest rate of requests, or 0 if there is no limit.
+     */
+    public double getMaxRequestsPerSecond() {
+        return Math.max(0, maxRequestsPerSecond);
+    }
+
+    public int getMaxRetries() {
+        return Math.max(0, maxRetries);
+    }
+
+    public boolean isProgressEnabled() {
+        return progress;
+    }
+
+    public boolean isResume() {
+        return resume;
+    }
+
     public void printUsage() {
         jCommander.usage();
         System.out.println("Options preceded by an asterisk are required.");
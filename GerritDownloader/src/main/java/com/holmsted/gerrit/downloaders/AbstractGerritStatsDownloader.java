@@ -4,12 +4,15 @@ import com.holmsted.gerrit.GerritServer;
 
 import org.json.JSONObject;
 
-import java.util.List;
+import java.util.function.Consumer;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 public abstract class AbstractGerritStatsDownloader {
     public static final int NO_COMMIT_LIMIT = -1;
+    public static final long NO_DEADLINE = -1;
+    public static final int NO_SHARDING = 0;
 
     @Nonnull
     private final GerritServer gerritServer;
@@ -20,6 +23,28 @@ public abstract class AbstractGerritStatsDownloader {
     private String afterDate;
     private String beforeDate;
 
+    private long deadline = NO_DEADLINE;
+    private boolean timedOut;
+    private int pagesInFlight = 1;
+    private int shardSize = NO_SHARDING;
+    private int windowsInFlight = 1;
+    @Nonnull
+    private DownloadMetrics metrics = new DownloadMetrics();
+    @Nonnull
+    private RequestGovernor governor = new RequestGovernor(0, 0, RequestGovernor.DEFAULT_MAX_RETRIES);
+    @Nonnull
+    private CheckpointListener checkpointListener = position -> { };
+    @Nullable
+    private JSONObject resumePosition;
+
+    /**
+     * Receives the position the download has reached, each time the changes read so far
+     * have all been passed to the consumer.
+     */
+    public interface CheckpointListener {
+        void onCheckpoint(@Nonnull JSONObject position);
+    }
+
     public AbstractGerritStatsDownloader(@Nonnull GerritServer gerritServer) {
         this.gerritServer = gerritServer;
     }
@@ -68,8 +93,117 @@ public abstract class AbstractGerritStatsDownloader {
     }
 
     /**
-     * Reads data from the server. Returns data in JSON-like format, which can be parsed by
-     * GerritStats tool.
+     * Sets the wall clock time, in msec since the epoch, after which no further requests are made
+     * to the server. The data read so far is still returned from {@link #readData(Consumer)}.
+     */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Sets how many pages of query results may be requested from the server at once,
+     * if the downloader supports it.
+     */
+    public void setPagesInFlight(int pagesInFlight) {
+        this.pagesInFlight = Math.max(1, pagesInFlight);
+    }
+
+    public int getPagesInFlight() {
+        return pagesInFlight;
+    }
+
+    /**
+     * Sets the largest number of changes downloaded with a single query, if the downloader supports
+     * splitting the query into date windows.
+     */
+    public void setShardSize(int shardSize) {
+        this.shardSize = shardSize;
+    }
+
+    public int getShardSize() {
+        return shardSize;
+    }
+
+    /**
+     * Sets how many date windows are read at once, each a page at a time, when the query is split into them.
+     */
+    public void setWindowsInFlight(int windowsInFlight) {
+        this.windowsInFlight = Math.max(1, windowsInFlight);
+    }
+
+    public int getWindowsInFlight() {
+        return windowsInFlight;
+    }
+
+    /**
+     * Sets where the figures of each request made to the server are recorded.
+     */
+    public void setMetrics(@Nonnull DownloadMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Nonnull
+    public DownloadMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the governor that all requests made to the server pass through.
+     */
+    public void setGovernor(@Nonnull RequestGovernor governor) {
+        this.governor = governor;
+    }
+
+    @Nonnull
+    public RequestGovernor getGovernor() {
+        return governor;
+    }
+
+    /**
+     * Sets the listener that is told the position reached after each page has been passed on.
+     * The position is only meaningful to the downloader; it is called on the thread
+     * that calls the consumer.
+     */
+    public void setCheckpointListener(@Nonnull CheckpointListener checkpointListener) {
+        this.checkpointListener = checkpointListener;
+    }
+
+    @Nonnull
+    public CheckpointListener getCheckpointListener() {
+        return checkpointListener;
+    }
+
+    /**
+     * Sets a position reported by an earlier download of the same query, to continue reading
+     * after the changes that were passed on before it. Null starts from the beginning.
+     */
+    public void setResumePosition(@Nullable JSONObject resumePosition) {
+        this.resumePosition = resumePosition;
+    }
+
+    @Nullable
+    public JSONObject getResumePosition() {
+        return resumePosition;
+    }
+
+    /**
+     * Returns whether the last {@link #readData(Consumer)} call stopped early because the deadline passed.
+     */
+    public boolean hasTimedOut() {
+        return timedOut;
+    }
+
+    protected void setTimedOut(boolean timedOut) {
+        this.timedOut = timedOut;
+    }
+
+    /**
+     * Reads data from the server, passing each commit to the consumer as soon as it has been read.
+     * The data is in JSON-like format, which can be parsed by GerritStats tool.
      */
-    public abstract List<JSONObject> readData();
+    public abstract void readData(@Nonnull Consumer<JSONObject> consumer);
 }
@@ -0,0 +1,74 @@
+package com.holmsted.gerrit.downloaders;
+
+import com.google.common.base.Preconditions;
+
+import org.json.JSONObject;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Counts the changes written to an output file, and remembers the newest lastUpdated value among them.
+ * <p>
+ * When the changes are merged into an existing output file, the keys of the changes are remembered too,
+ * so that the older copies of them in the existing file can be left out. There are then only as many
+ * of them as there were changes updated since the previous download.
+ */
+public class ChangeTracker {
+
+    @Nullable
+    private final Set<String> changeKeys;
+
+    private int changeCount;
+    private long newestLastUpdated = -1;
+
+    /**
+     * Creates a tracker that remembers the keys of the changes only if keepChangeKeys is set.
+     */
+    ChangeTracker(boolean keepChangeKeys) {
+        this.changeKeys = keepChangeKeys ? new HashSet<>() : null;
+    }
+
+    /**
+     * Returns a key that identifies the change within a Gerrit server. The Change-Id alone is not
+     * unique, as the same Change-Id can be uploaded to several branches, so the key is formed
+     * like Gerrit's own change triplet, project~branch~Change-Id.
+     */
+    @Nonnull
+    public static String getChangeKey(@Nonnull JSONObject change) {
+        return String.format("%s~%s~%s",
+                change.optString("project"),
+                change.optString("branch"),
+                change.optString("id"));
+    }
+
+    public void add(@Nonnull JSONObject change) {
+        if (changeKeys != null) {
+            changeKeys.add(getChangeKey(change));
+        }
+        newestLastUpdated = Math.max(newestLastUpdated, change.optLong("lastUpdated", -1));
+        ++changeCount;
+    }
+
+    /**
+     * Returns whether the change was added. Only available if the tracker keeps the keys of the changes.
+     */
+    public boolean contains(@Nonnull JSONObject change) {
+        Preconditions.checkState(changeKeys != null, "The keys of the changes are not kept");
+        return changeKeys.contains(getChangeKey(change));
+    }
+
+    public int getChangeCount() {
+        return changeCount;
+    }
+
+    /**
+     * Returns the newest lastUpdated value seen, in seconds since the epoch, or -1 if nothing was seen.
+     */
+    public long getNewestLastUpdated() {
+        return newestLastUpdated;
+    }
+}
@@ -0,0 +1,70 @@
+package com.holmsted.gerrit.downloaders;
+
+import com.holmsted.file.FileReader;
+
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.function.Consumer;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Reads back the commits of a file written by {@link CommitFileWriter}, one commit at a time,
+ * so that existing output can be merged with new data without loading the whole file.
+ */
+public final class CommitFileReader {
+
+    private static final String COMMITS_KEY = "commits";
+
+    public static void readCommits(@Nonnull File file, @Nonnull Consumer<JSONObject> consumer) throws IOException {
+        try (Reader reader = FileReader.openFile(file.getPath())) {
+            JSONTokener tokener = new JSONTokener(reader);
+            expect(tokener, '{');
+
+            char next = tokener.nextClean();
+            while (next != '}') {
+                tokener.back();
+                String key = tokener.nextValue().toString();
+                expect(tokener, ':');
+                if (COMMITS_KEY.equals(key)) {
+                    readCommitArray(tokener, consumer);
+                } else {
+                    tokener.nextValue();
+                }
+                next = skipSeparator(tokener);
+            }
+        }
+    }
+
+    private static void readCommitArray(@Nonnull JSONTokener tokener, @Nonnull Consumer<JSONObject> consumer) {
+        expect(tokener, '[');
+        char next = tokener.nextClean();
+        while (next != ']') {
+            tokener.back();
+            Object value = tokener.nextValue();
+            if (value instanceof JSONObject) {
+                consumer.accept((JSONObject) value);
+            }
+            next = skipSeparator(tokener);
+        }
+    }
+
+    private static char skipSeparator(@Nonnull JSONTokener tokener) {
+        char next = tokener.nextClean();
+        return next == ',' ? tokener.nextClean() : next;
+    }
+
+    private static void expect(@Nonnull JSONTokener tokener, char expected) {
+        char next = tokener.nextClean();
+        if (next != expected) {
+            throw tokener.syntaxError(String.format("Expected '%c' but got '%c'", expected, next));
+        }
+    }
+
+    private CommitFileReader() {
+    }
+}
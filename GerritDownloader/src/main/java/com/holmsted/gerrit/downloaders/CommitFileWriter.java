@@ -0,0 +1,173 @@
+package com.holmsted.gerrit.downloaders;
+
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.CountingOutputStream;
+import com.holmsted.file.Compression;
+import com.holmsted.gerrit.DownloadManifest;
+import com.holmsted.gerrit.GerritVersion;
+
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Streams commits into a GerritStats json file as they are read from the server,
+ * so that the whole project never needs to be held in memory.
+ * <p>
+ * The output is written into a temporary file, which only replaces the output file
+ * once {@link #finish()} is called. If the writer is closed without finishing,
+ * e.g. because the download failed, the temporary file is removed and no output is left behind.
+ * Nothing is written at all if no commits were passed to the writer.
+ * <p>
+ * If the output filename ends in the extension of a {@link Compression} format, e.g. ".json.gz",
+ * the output is compressed while it is being written.
+ * <p>
+ * While writing, the writer collects what the {@link DownloadManifest} records about the file:
+ * the range of the created and last updated dates, the branches, and the size and hash of the file.
+ */
+public class CommitFileWriter implements Consumer<JSONObject>, Closeable {
+
+    private static final int FILE_FORMAT_VERSION = 1;
+
+    @Nonnull
+    private final File outputFile;
+    @Nonnull
+    private final File tempFile;
+    @Nonnull
+    private final Compression compression;
+    @Nonnull
+    private final GerritVersion gerritVersion;
+
+    private Writer writer;
+    private CountingOutputStream countingStream;
+    private MessageDigest digest;
+    private int commitCount;
+    private boolean finished;
+
+    private long minCreatedOn = Long.MAX_VALUE;
+    private long maxCreatedOn = Long.MIN_VALUE;
+    private long minLastUpdated = Long.MAX_VALUE;
+    private long maxLastUpdated = Long.MIN_VALUE;
+    @Nonnull
+    private final Set<String> branches = new TreeSet<>();
+
+    public CommitFileWriter(@Nonnull String outputFilename, @Nonnull GerritVersion gerritVersion) {
+        this.outputFile = new File(outputFilename);
+        this.tempFile = new File(outputFilename + ".tmp");
+        this.compression = Compression.fromFilename(outputFilename);
+        this.gerritVersion = gerritVersion;
+    }
+
+    @Override
+    public void accept(@Nonnull JSONObject commit) {
+        try {
+            if (writer == null) {
+                open();
+            } else {
+                writer.write(',');
+            }
+            commit.write(writer);
+            ++commitCount;
+
+            long createdOn = commit.optLong("createdOn");
+            long lastUpdated = commit.optLong("lastUpdated");
+            minCreatedOn = Math.min(minCreatedOn, createdOn);
+            maxCreatedOn = Math.max(maxCreatedOn, createdOn);
+            minLastUpdated = Math.min(minLastUpdated, lastUpdated);
+            maxLastUpdated = Math.max(maxLastUpdated, lastUpdated);
+            branches.add(commit.optString("branch"));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public int getCommitCount() {
+        return commitCount;
+    }
+
+    @Nonnull
+    public String getOutputFilename() {
+        return outputFile.getPath();
+    }
+
+    /**
+     * Returns the manifest entry of the finished output file, or null if nothing was written.
+     */
+    @Nullable
+    public DownloadManifest.FileEntry createManifestEntry(@Nonnull String projectName) {
+        if (!finished || commitCount == 0) {
+            return null;
+        }
+        return new DownloadManifest.FileEntry(projectName,
+                commitCount,
+                countingStream.getCount(),
+                outputFile.lastModified(),
+                minCreatedOn,
+                maxCreatedOn,
+                minLastUpdated,
+                maxLastUpdated,
+                branches,
+                BaseEncoding.base16().lowerCase().encode(digest.digest()));
+    }
+
+    /**
+     * Completes the json document and moves it in place of the output file.
+     */
+    public void finish() throws IOException {
+        if (writer != null) {
+            writer.write("]}");
+            writer.close();
+            writer = null;
+            Files.move(tempFile.toPath(), outputFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finished = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+        if (!finished) {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    private void open() throws IOException {
+        File parentDir = tempFile.getAbsoluteFile().getParentFile();
+        Files.createDirectories(parentDir.toPath());
+
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        countingStream = new CountingOutputStream(
+                new DigestOutputStream(Files.newOutputStream(tempFile.toPath()), digest));
+        writer = new BufferedWriter(new OutputStreamWriter(
+                compression.compress(countingStream), StandardCharsets.UTF_8));
+        writer.write(String.format("{\"gerritStatsVersion\":%d,\"gerritVersion\":%s,\"commits\":[",
+                FILE_FORMAT_VERSION,
+                JSONObject.quote(gerritVersion.toString())));
+    }
+}
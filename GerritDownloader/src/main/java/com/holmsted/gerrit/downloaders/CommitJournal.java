@@ -0,0 +1,225 @@
+package com.holmsted.gerrit.downloaders;
+
+import com.google.common.io.CountingOutputStream;
+import com.holmsted.file.FileReader;
+import com.holmsted.file.FileWriter;
+import com.holmsted.json.JsonUtils;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Keeps the changes downloaded for a project on disk as they are read, so that a download that fails
+ * or is killed can be continued with --resume rather than started over. As the changes are written
+ * to disk twice, first into the journal and then into the output file, the journal is only kept
+ * for downloads run with --resume.
+ * <p>
+ * The changes are appended to a journal file next to the output file, one json object per line.
+ * At each checkpoint of the downloader, the journal is flushed to disk, and a checkpoint file records
+ * the length of the journal together with the position the downloader reported. Resuming cuts the journal
+ * back to that length, dropping anything written after the checkpoint, and continues the download
+ * from the position. Once the download is complete, the output file is written from the journal
+ * and both files are removed.
+ * <p>
+ * The checkpoint also records a description of the query. A journal left by a download of another
+ * query, e.g. with different dates, is not resumed but started over.
+ */
+public final class CommitJournal implements Consumer<JSONObject>, Closeable {
+
+    private static final String JOURNAL_EXTENSION = ".journal";
+    private static final String CHECKPOINT_EXTENSION = ".checkpoint";
+    private static final int CHECKPOINT_FORMAT_VERSION = 1;
+
+    private static final String QUERY_KEY = "query";
+    private static final String JOURNAL_LENGTH_KEY = "journalLength";
+    private static final String CHANGE_COUNT_KEY = "changes";
+    private static final String POSITION_KEY = "position";
+
+    @Nonnull
+    private final File journalFile;
+    @Nonnull
+    private final File checkpointFile;
+    @Nonnull
+    private final String query;
+    @Nullable
+    private final JSONObject resumePosition;
+
+    private FileOutputStream fileStream;
+    private CountingOutputStream countingStream;
+    private Writer writer;
+    private long resumedLength;
+    private int changeCount;
+
+    private CommitJournal(@Nonnull String outputFilename,
+                          @Nonnull String query,
+                          @Nullable JSONObject resumePosition,
+                          int changeCount) {
+        this.journalFile = new File(outputFilename + JOURNAL_EXTENSION);
+        this.checkpointFile = new File(outputFilename + CHECKPOINT_EXTENSION);
+        this.query = query;
+        this.resumePosition = resumePosition;
+        this.changeCount = changeCount;
+    }
+
+    /**
+     * Starts a new, empty journal for the output file, removing any journal left behind earlier.
+     */
+    @Nonnull
+    public static CommitJournal create(@Nonnull String outputFilename, @Nonnull String query) throws IOException {
+        CommitJournal journal = new CommitJournal(outputFilename, query, null, 0);
+        journal.delete();
+        journal.open(0);
+        return journal;
+    }
+
+    /**
+     * Continues the journal left behind for the output file by an earlier download of the same query.
+     * If there is no such journal, a new one is started.
+     */
+    @Nonnull
+    public static CommitJournal resume(@Nonnull String outputFilename, @Nonnull String query) throws IOException {
+        CommitJournal journal = new CommitJournal(outputFilename, query, null, 0);
+        JSONObject checkpoint = journal.readCheckpoint();
+        if (checkpoint == null) {
+            System.out.println(String.format("No download to resume for '%s', starting over", outputFilename));
+            return create(outputFilename, query);
+        }
+
+        long journalLength = checkpoint.getLong(JOURNAL_LENGTH_KEY);
+        if (!query.equals(checkpoint.optString(QUERY_KEY)) || journal.journalFile.length() < journalLength) {
+            System.out.println(String.format("The download left for '%s' does not match the current options, "
+                    + "starting over", outputFilename));
+            return create(outputFilename, query);
+        }
+
+        journal = new CommitJournal(outputFilename, query,
+                checkpoint.getJSONObject(POSITION_KEY), checkpoint.optInt(CHANGE_COUNT_KEY));
+        journal.open(journalLength);
+        System.out.println(String.format("Resuming download of '%s' after %d changes",
+                outputFilename, journal.changeCount));
+        return journal;
+    }
+
+    /**
+     * Returns the position to continue the download from, or null if the journal was started over.
+     */
+    @Nullable
+    public JSONObject getResumePosition() {
+        return resumePosition;
+    }
+
+    public int getChangeCount() {
+        return changeCount;
+    }
+
+    @Override
+    public void accept(@Nonnull JSONObject change) {
+        try {
+            change.write(writer);
+            writer.write('\n');
+            ++changeCount;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Flushes the changes written so far to disk, and records them as read up to the given position.
+     */
+    public void checkpoint(@Nonnull JSONObject position) {
+        try {
+            writer.flush();
+            fileStream.getChannel().force(false);
+
+            JSONObject checkpoint = new JSONObject()
+                    .put("version", CHECKPOINT_FORMAT_VERSION)
+                    .put(QUERY_KEY, query)
+                    .put(JOURNAL_LENGTH_KEY, resumedLength + countingStream.getCount())
+                    .put(CHANGE_COUNT_KEY, changeCount)
+                    .put(POSITION_KEY, position);
+
+            File tempFile = new File(checkpointFile.getPath() + ".tmp");
+            FileWriter.writeFile(tempFile.getPath(), checkpoint.toString());
+            Files.move(tempFile.toPath(), checkpointFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Passes the changes in the journal to the consumer, in the order they were written.
+     * The journal must have been closed.
+     */
+    public void readChanges(@Nonnull Consumer<JSONObject> consumer) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(journalFile.toPath(), StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            while (line != null) {
+                consumer.accept(new JSONObject(line));
+                line = reader.readLine();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    /**
+     * Removes the journal and its checkpoint.
+     */
+    public void delete() throws IOException {
+        Files.deleteIfExists(checkpointFile.toPath());
+        Files.deleteIfExists(journalFile.toPath());
+    }
+
+    private void open(long length) throws IOException {
+        Files.createDirectories(journalFile.getAbsoluteFile().getParentFile().toPath());
+        if (length > 0) {
+            try (FileChannel channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(length);
+            }
+        }
+        fileStream = new FileOutputStream(journalFile, length > 0);
+        countingStream = new CountingOutputStream(fileStream);
+        writer = new BufferedWriter(new OutputStreamWriter(countingStream, StandardCharsets.UTF_8));
+        resumedLength = length;
+    }
+
+    @Nullable
+    private JSONObject readCheckpoint() {
+        if (!checkpointFile.isFile() || !journalFile.isFile()) {
+            return null;
+        }
+        try {
+            JSONObject checkpoint = JsonUtils.readJsonString(FileReader.readFile(checkpointFile.getPath()));
+            return checkpoint.has(POSITION_KEY) ? checkpoint : null;
+        } catch (JSONException e) {
+            System.err.println(String.format("Ignoring unreadable checkpoint file '%s'", checkpointFile));
+            return null;
+        }
+    }
+}
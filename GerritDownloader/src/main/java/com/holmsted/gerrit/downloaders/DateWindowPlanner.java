@@ -0,0 +1,155 @@
+package com.holmsted.gerrit.downloaders;
+
+import org.json.JSONObject;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Splits the date range of a query into windows that each hold at most a given number of changes,
+ * so that a very large project can be downloaded as several smaller queries. Deep offset paging
+ * gets slower the further it goes, while each window query starts from offset zero.
+ * <p>
+ * The windows are found by bisection: a window with too many changes, as told by the probe,
+ * is split in half until the halves are small enough. Adjacent windows share their boundary,
+ * as the after: and before: operators are inclusive, so the changes updated exactly at a boundary
+ * are read twice and must be removed by change key.
+ * <p>
+ * Dates are passed to the server as "yyyy-MM-dd HH:mm:ss". The server interprets them in its
+ * own timezone, which shifts all windows by the same amount and so does not leave gaps.
+ */
+public class DateWindowPlanner {
+
+    /**
+     * Changes older than this are not split any further; they all end up in the oldest window.
+     */
+    private static final LocalDate EARLIEST_SPLIT_DATE = LocalDate.of(2008, 1, 1);
+    private static final long MIN_WINDOW_SECS = TimeUnit.HOURS.toSeconds(1);
+
+    private static final String AFTER_DATE_KEY = "afterDate";
+    private static final String BEFORE_DATE_KEY = "beforeDate";
+
+    private static final DateTimeFormatter DATE_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd[ HH:mm:ss]", Locale.US);
+    private static final DateTimeFormatter QUERY_DATE_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss", Locale.US);
+
+    @Nonnull
+    private final WindowProbe probe;
+    private final int maxChangesPerWindow;
+
+    /**
+     * Tells whether the query restricted to the given dates matches more than changeCount changes.
+     * A null date leaves that end of the window open.
+     */
+    public interface WindowProbe {
+        boolean hasMoreChangesThan(@Nullable String afterDate, @Nullable String beforeDate, int changeCount);
+    }
+
+    public static class DateWindow {
+        @Nullable
+        private final String afterDate;
+        @Nullable
+        private final String beforeDate;
+
+        DateWindow(@Nullable String afterDate, @Nullable String beforeDate) {
+            this.afterDate = afterDate;
+            this.beforeDate = beforeDate;
+        }
+
+        @Nullable
+        public String getAfterDate() {
+            return afterDate;
+        }
+
+        @Nullable
+        public String getBeforeDate() {
+            return beforeDate;
+        }
+
+        /**
+         * Returns the window as json, to be stored in a download checkpoint.
+         */
+        @Nonnull
+        public JSONObject toJson() {
+            return new JSONObject()
+                    .put(AFTER_DATE_KEY, afterDate)
+                    .put(BEFORE_DATE_KEY, beforeDate);
+        }
+
+        @Nonnull
+        public static DateWindow fromJson(@Nonnull JSONObject json) {
+            return new DateWindow(json.optString(AFTER_DATE_KEY, null), json.optString(BEFORE_DATE_KEY, null));
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s - %s",
+                    afterDate != null ? afterDate : "", beforeDate != null ? beforeDate : "");
+        }
+    }
+
+    public DateWindowPlanner(@Nonnull WindowProbe probe, int maxChangesPerWindow) {
+        this.probe = probe;
+        this.maxChangesPerWindow = maxChangesPerWindow;
+    }
+
+    /**
+     * Returns the windows covering the given date range, newest first, which is the order
+     * in which the server returns changes.
+     */
+    @Nonnull
+    public List<DateWindow> plan(@Nullable String afterDate, @Nullable String beforeDate) {
+        List<DateWindow> windows = new ArrayList<>();
+        if (!probe.hasMoreChangesThan(afterDate, beforeDate, maxChangesPerWindow)) {
+            windows.add(new DateWindow(afterDate, beforeDate));
+            return windows;
+        }
+
+        long start = afterDate != null ? parseDate(afterDate)
+                : EARLIEST_SPLIT_DATE.atStartOfDay().toEpochSecond(ZoneOffset.UTC);
+        long end = beforeDate != null ? parseDate(beforeDate)
+                : LocalDateTime.now(ZoneOffset.UTC).toEpochSecond(ZoneOffset.UTC) + TimeUnit.DAYS.toSeconds(1);
+
+        long middle = start + (end - start) / 2;
+        // The outermost windows keep the original bounds, which may be open.
+        addWindows(windows, formatDate(middle), beforeDate, middle, end);
+        addWindows(windows, afterDate, formatDate(middle), start, middle);
+        return windows;
+    }
+
+    private void addWindows(@Nonnull List<DateWindow> windows,
+                            @Nullable String afterDate,
+                            @Nullable String beforeDate,
+                            long start,
+                            long end) {
+        if (end - start <= MIN_WINDOW_SECS
+                || !probe.hasMoreChangesThan(afterDate, beforeDate, maxChangesPerWindow)) {
+            windows.add(new DateWindow(afterDate, beforeDate));
+            return;
+        }
+
+        long middle = start + (end - start) / 2;
+        addWindows(windows, formatDate(middle), beforeDate, middle, end);
+        addWindows(windows, afterDate, formatDate(middle), start, middle);
+    }
+
+    private static long parseDate(@Nonnull String date) {
+        String dateTime = date.length() == "yyyy-MM-dd".length() ? date + " 00:00:00" : date;
+        return LocalDateTime.parse(dateTime, DATE_FORMAT).toEpochSecond(ZoneOffset.UTC);
+    }
+
+    @Nonnull
+    private static String formatDate(long epochSecs) {
+        return QUERY_DATE_FORMAT.format(LocalDateTime.ofEpochSecond(epochSecs, 0, ZoneOffset.UTC));
+    }
+}
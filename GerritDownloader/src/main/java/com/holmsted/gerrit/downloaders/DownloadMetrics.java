@@ -0,0 +1,315 @@
+package com.holmsted.gerrit.downloaders;
+
+import com.holmsted.file.FileWriter;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Collects timing and size figures of every query made to the server, so that it can be seen
+ * whether a download spends its time on the server, in the network or in the downloader itself.
+ * <p>
+ * Each request records its wall time, the rows and bytes it returned, the server-side run time
+ * if the server reports it, and the number of retries. As each request finishes, it is added to running
+ * totals per project and for the whole run, and written as a line of a csv report next to the downloaded data;
+ * the totals are written as a json report at the end. No request is kept once it has been recorded.
+ * Workers downloading projects in parallel share one instance, so all access is synchronized.
+ */
+public class DownloadMetrics {
+
+    public static final String REPORT_FILENAME = ".gerritstats-download-metrics";
+
+    private static final String JSON_EXTENSION = ".json";
+    private static final String CSV_EXTENSION = ".csv";
+    private static final String CSV_HEADER = "project,transport,startTime,wallTimeMsec,serverTimeMsec,"
+            + "rows,bytes,retries,succeeded,cancelled,request";
+
+    private final long startTime = System.currentTimeMillis();
+
+    @Nullable
+    private final File csvFile;
+
+    private final Object lock = new Object();
+    @Nonnull
+    private final Totals runTotals = new Totals();
+    @Nonnull
+    private final Map<String, Totals> projectTotals = new LinkedHashMap<>();
+    @Nullable
+    private Writer csvWriter;
+    private boolean csvFailed;
+
+    /**
+     * A single query made to the server. The downloader fills in the figures while the request
+     * is running, and hands it to {@link #finish(Request, boolean)} once done.
+     */
+    public static class Request {
+        @Nonnull
+        private final String projectName;
+        @Nonnull
+        private final String transport;
+        @Nonnull
+        private final String description;
+        private final long startTime = System.currentTimeMillis();
+
+        private long wallTime;
+        private int rowCount;
+        private long byteCount;
+        private int serverTime = -1;
+        private int retryCount;
+        private boolean succeeded;
+        private boolean cancelled;
+
+        Request(@Nonnull String projectName, @Nonnull String transport, @Nonnull String description) {
+            this.projectName = projectName;
+            this.transport = transport;
+            this.description = description;
+        }
+
+        public void setRowCount(int rowCount) {
+            this.rowCount = rowCount;
+        }
+
+        public void addBytes(long byteCount) {
+            this.byteCount += byteCount;
+        }
+
+        /**
+         * Sets the time the server reports having spent on the query, e.g. runTimeMilliseconds.
+         */
+        public void setServerTime(int serverTimeMsec) {
+            this.serverTime = serverTimeMsec;
+        }
+
+        int getServerTime() {
+            return serverTime;
+        }
+
+        public void incrementRetryCount() {
+            ++retryCount;
+        }
+
+        @Nonnull
+        String toCsv() {
+            return String.format("%s,%s,%d,%d,%d,%d,%d,%d,%b,%b,%s",
+                    quoteCsv(projectName), transport, startTime, wallTime, serverTime,
+                    rowCount, byteCount, retryCount, succeeded, cancelled, quoteCsv(description));
+        }
+    }
+
+    /**
+     * The sum of the figures of a set of requests.
+     */
+    static class Totals {
+        int requestCount;
+        int failedCount;
+        int cancelledCount;
+        int rowCount;
+        long byteCount;
+        long wallTime;
+        long serverTime;
+        int retryCount;
+
+        Totals() {
+        }
+
+        Totals(@Nonnull Totals other) {
+            requestCount = other.requestCount;
+            failedCount = other.failedCount;
+            cancelledCount = other.cancelledCount;
+            rowCount = other.rowCount;
+            byteCount = other.byteCount;
+            wallTime = other.wallTime;
+            serverTime = other.serverTime;
+            retryCount = other.retryCount;
+        }
+
+        void add(@Nonnull Request request) {
+            ++requestCount;
+            if (request.cancelled) {
+                ++cancelledCount;
+            } else if (!request.succeeded) {
+                ++failedCount;
+            }
+            rowCount += request.rowCount;
+            byteCount += request.byteCount;
+            wallTime += request.wallTime;
+            serverTime += Math.max(0, request.serverTime);
+            retryCount += request.retryCount;
+        }
+
+        @Nonnull
+        JSONObject toJson() {
+            return new JSONObject()
+                    .put("requests", requestCount)
+                    .put("failedRequests", failedCount)
+                    .put("cancelledRequests", cancelledCount)
+                    .put("rows", rowCount)
+                    .put("bytes", byteCount)
+                    .put("requestWallTimeMsec", wallTime)
+                    .put("serverTimeMsec", serverTime)
+                    .put("retries", retryCount);
+        }
+    }
+
+    /**
+     * Creates metrics that only keep the totals.
+     */
+    public DownloadMetrics() {
+        this.csvFile = null;
+    }
+
+    /**
+     * Creates metrics that write the reports into the given output directory.
+     */
+    public DownloadMetrics(@Nonnull String outputDir) {
+        this.csvFile = new File(outputDir, REPORT_FILENAME + CSV_EXTENSION);
+    }
+
+    /**
+     * Starts timing a request made for the given project.
+     */
+    @Nonnull
+    public Request start(@Nonnull String projectName, @Nonnull String transport, @Nonnull String description) {
+        return new Request(projectName, transport, description);
+    }
+
+    /**
+     * Records the finished request. A request whose thread has been interrupted, e.g. a page
+     * requested ahead that turned out not to be needed, is counted as cancelled rather than failed.
+     */
+    public void finish(@Nonnull Request request, boolean succeeded) {
+        request.wallTime = System.currentTimeMillis() - request.startTime;
+        request.succeeded = succeeded;
+        request.cancelled = !succeeded && Thread.currentThread().isInterrupted();
+        synchronized (lock) {
+            runTotals.add(request);
+            projectTotals.computeIfAbsent(request.projectName, name -> new Totals()).add(request);
+            writeCsvLine(request.toCsv());
+        }
+    }
+
+    /**
+     * Returns the totals of all requests finished so far.
+     */
+    @Nonnull
+    Totals getTotals() {
+        synchronized (lock) {
+            return new Totals(runTotals);
+        }
+    }
+
+    long getElapsedTime() {
+        return System.currentTimeMillis() - startTime;
+    }
+
+    /**
+     * Completes the reports in the output directory: the csv file with a line per request, which was written
+     * as the requests finished, and a json file with the per-project and per-run totals.
+     * Returns the name of the json report.
+     */
+    @Nonnull
+    String writeReport(@Nonnull String outputDir, @Nonnull List<Downloader.ProjectResult> results) {
+        Totals runTotalsCopy;
+        Map<String, Totals> projectTotalsCopy = new LinkedHashMap<>();
+        synchronized (lock) {
+            // writes at least the header, even if no requests were made.
+            writeCsvLine(null);
+            closeCsv();
+            runTotalsCopy = new Totals(runTotals);
+            projectTotals.forEach((name, totals) -> projectTotalsCopy.put(name, new Totals(totals)));
+        }
+
+        long elapsedTime = getElapsedTime();
+        JSONArray projectArray = new JSONArray();
+        int commitCount = 0;
+        for (Downloader.ProjectResult result : results) {
+            Totals totals = projectTotalsCopy.get(result.projectName);
+            JSONObject project = (totals != null ? totals : new Totals()).toJson()
+                    .put("project", result.projectName)
+                    .put("status", result.status.toString())
+                    .put("commits", result.commitCount)
+                    .put("elapsedTimeMsec", result.elapsedTime);
+            projectArray.put(project);
+            commitCount += result.commitCount;
+        }
+
+        JSONObject run = runTotalsCopy.toJson()
+                .put("startTime", startTime)
+                .put("elapsedTimeMsec", elapsedTime)
+                .put("commits", commitCount)
+                .put("commitsPerSecond", perSecond(commitCount, elapsedTime))
+                .put("bytesPerSecond", perSecond(runTotalsCopy.byteCount, elapsedTime));
+
+        JSONObject report = new JSONObject()
+                .put("run", run)
+                .put("projects", projectArray);
+
+        String reportFilename = new File(outputDir, REPORT_FILENAME).getPath();
+        FileWriter.writeFile(reportFilename + JSON_EXTENSION, report.toString(2));
+        return reportFilename + JSON_EXTENSION;
+    }
+
+    static long perSecond(long value, long elapsedTimeMsec) {
+        return elapsedTimeMsec > 0 ? value * 1000 / elapsedTimeMsec : 0;
+    }
+
+    /**
+     * Appends the line to the csv report, opening it with its header first if needed; a null line
+     * only opens it. If the report cannot be written, the error is printed once, and the download goes on
+     * without it. Must be called with the lock held.
+     */
+    private void writeCsvLine(@Nullable String line) {
+        if (csvFile == null || csvFailed) {
+            return;
+        }
+        try {
+            if (csvWriter == null) {
+                Files.createDirectories(csvFile.getAbsoluteFile().getParentFile().toPath());
+                csvWriter = Files.newBufferedWriter(csvFile.toPath(), StandardCharsets.UTF_8);
+                csvWriter.write(CSV_HEADER);
+                csvWriter.write('\n');
+            }
+            if (line != null) {
+                csvWriter.write(line);
+                csvWriter.write('\n');
+            }
+        } catch (IOException e) {
+            System.err.println("Could not write the download metrics to " + csvFile);
+            e.printStackTrace();
+            csvFailed = true;
+        }
+    }
+
+    private void closeCsv() {
+        if (csvWriter == null) {
+            return;
+        }
+        try {
+            csvWriter.close();
+        } catch (IOException e) {
+            System.err.println("Could not write the download metrics to " + csvFile);
+            e.printStackTrace();
+        }
+        csvWriter = null;
+    }
+
+    @Nonnull
+    private static String quoteCsv(@Nullable String value) {
+        if (value == null) {
+            return "";
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
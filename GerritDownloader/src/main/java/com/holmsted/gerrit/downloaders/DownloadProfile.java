@@ -0,0 +1,80 @@
+package com.holmsted.gerrit.downloaders;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Selects which fields of each change are kept in the output.
+ */
+public enum DownloadProfile {
+    /**
+     * Keeps the changes as the server returns them.
+     */
+    FULL {
+        @Nonnull
+        @Override
+        public JSONObject apply(@Nonnull JSONObject change) {
+            return change;
+        }
+    },
+    /**
+     * Drops the fields GerritStats does not use, including the texts it does not show: the commit message
+     * and the change messages. Inline comments keep their text, as it is shown on the profile pages.
+     * The output is still read by GerritStats as usual, with the dropped texts left empty.
+     * <p>
+     * The fields are dropped as the changes are written, so this only saves disk space;
+     * the server still sends the full changes.
+     */
+    SLIM {
+        @Nonnull
+        @Override
+        public JSONObject apply(@Nonnull JSONObject change) {
+            change.remove(COMMIT_MESSAGE_KEY);
+
+            JSONArray comments = change.optJSONArray(COMMENTS_KEY);
+            for (int i = 0; comments != null && i < comments.length(); ++i) {
+                JSONObject comment = comments.optJSONObject(i);
+                if (comment != null) {
+                    comment.remove(MESSAGE_KEY);
+                }
+            }
+
+            JSONArray patchSets = change.optJSONArray("patchSets");
+            for (int i = 0; patchSets != null && i < patchSets.length(); ++i) {
+                JSONObject patchSet = patchSets.optJSONObject(i);
+                if (patchSet != null) {
+                    patchSet.remove("parents");
+                    patchSet.remove("ref");
+                    patchSet.remove("revision");
+                }
+            }
+            return change;
+        }
+    };
+
+    private static final String COMMIT_MESSAGE_KEY = "commitMessage";
+    private static final String COMMENTS_KEY = "comments";
+    private static final String MESSAGE_KEY = "message";
+
+    /**
+     * Applies the profile to the change, modifying it in place, and returns it.
+     */
+    @Nonnull
+    public abstract JSONObject apply(@Nonnull JSONObject change);
+
+    /**
+     * Returns the profile with the given name, e.g. "slim", or null if there is no such profile.
+     */
+    @Nullable
+    public static DownloadProfile fromName(@Nonnull String name) {
+        for (DownloadProfile profile : values()) {
+            if (profile.name().equalsIgnoreCase(name)) {
+                return profile;
+            }
+        }
+        return null;
+    }
+}
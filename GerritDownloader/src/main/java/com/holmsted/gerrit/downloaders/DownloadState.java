@@ -0,0 +1,90 @@
+package com.holmsted.gerrit.downloaders;
+
+import com.holmsted.file.FileReader;
+import com.holmsted.file.FileWriter;
+import com.holmsted.json.JsonUtils;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Remembers, per output directory, the newest lastUpdated timestamp downloaded for each project.
+ * Incremental downloads use it to only query for changes updated since the previous run.
+ * <p>
+ * The state is stored as a small json file next to the downloaded data. Workers downloading
+ * projects in parallel share one instance, so all access is synchronized.
+ */
+public final class DownloadState {
+
+    public static final String STATE_FILENAME = ".gerritstats-download-state.json";
+
+    private static final int STATE_FORMAT_VERSION = 1;
+    private static final String PROJECTS_KEY = "projects";
+
+    @Nonnull
+    private final File stateFile;
+    @Nonnull
+    private final JSONObject projects;
+
+    private DownloadState(@Nonnull File stateFile, @Nonnull JSONObject projects) {
+        this.stateFile = stateFile;
+        this.projects = projects;
+    }
+
+    /**
+     * Reads the state from the given output directory. A missing or unreadable state file
+     * results in an empty state, so that all projects are downloaded in full.
+     */
+    @Nonnull
+    public static DownloadState load(@Nonnull String outputDir) {
+        File stateFile = new File(outputDir, STATE_FILENAME);
+        JSONObject projects = new JSONObject();
+        String data = stateFile.isFile() ? FileReader.readFile(stateFile.getPath()) : null;
+        try {
+            JSONObject storedProjects = data != null
+                    ? JsonUtils.readJsonString(data).optJSONObject(PROJECTS_KEY) : null;
+            if (storedProjects != null) {
+                projects = storedProjects;
+            }
+        } catch (JSONException e) {
+            System.err.println(String.format("Ignoring unreadable download state file '%s'", stateFile));
+        }
+        return new DownloadState(stateFile, projects);
+    }
+
+    /**
+     * Returns the newest lastUpdated value, in seconds since the epoch, seen for the project,
+     * or null if the project has not been downloaded before.
+     */
+    @Nullable
+    public Long getLastUpdated(@Nonnull String projectName) {
+        synchronized (projects) {
+            return projects.has(projectName) ? projects.getLong(projectName) : null;
+        }
+    }
+
+    /**
+     * Records the newest lastUpdated value for the project and writes the state file.
+     */
+    public void setLastUpdated(@Nonnull String projectName, long lastUpdated) throws IOException {
+        synchronized (projects) {
+            projects.put(projectName, lastUpdated);
+
+            JSONObject root = new JSONObject();
+            root.put("version", STATE_FORMAT_VERSION);
+            root.put(PROJECTS_KEY, projects);
+
+            File tempFile = new File(stateFile.getPath() + ".tmp");
+            FileWriter.writeFile(tempFile.getPath(), root.toString(2));
+            Files.move(tempFile.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -1,9 +1,15 @@
 package com.holmsted.gerrit.downloaders;
 
-import com.holmsted.file.FileWriter;
+import com.google.common.base.Strings;
 import com.holmsted.gerrit.CommandLineParser;
+import com.holmsted.gerrit.DownloadManifest;
 import com.holmsted.gerrit.GerritServer;
+import com.holmsted.gerrit.downloaders.rest.GerritRest;
+import com.holmsted.gerrit.downloaders.rest.GerritRestClient;
+import com.holmsted.gerrit.downloaders.rest.RestDownloader;
+import com.holmsted.gerrit.downloaders.rest.RestProjectLister;
 import com.holmsted.gerrit.downloaders.ssh.GerritSsh;
+import com.holmsted.gerrit.downloaders.ssh.GerritSshSession;
 import com.holmsted.gerrit.GerritVersion;
 import com.holmsted.gerrit.downloaders.ssh.SshDownloader;
 import com.holmsted.gerrit.downloaders.ssh.SshProjectLister;
@@ -11,77 +17,419 @@ import com.holmsted.gerrit.downloaders.ssh.SshProjectLister;
 import org.json.JSONObject;
 
 import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+@SuppressWarnings("PMD.ExcessiveImports")
 public class Downloader {
 
-    private static final int FILE_FORMAT_VERSION = 1;
-
     @Nonnull
     private final CommandLineParser commandLine;
+
     @Nonnull
     private final GerritServer gerritServer;
 
+    @Nullable
+    private final GerritSshSession sshSession;
+
+    @Nullable
+    private final GerritRestClient restClient;
+
+    @Nullable
+    private final DownloadState downloadState;
+
+    @Nonnull
+    private final DownloadMetrics metrics;
+
+    @Nonnull
+    private final DownloadManifest manifest;
+
+    @Nonnull
+    private final RequestGovernor governor;
+
     private GerritVersion gerritVersion;
 
+    enum ProjectStatus {
+        /**
+         * All available data was downloaded and written.
+         */
+        OK,
+        /**
+         * The download was stopped by --project-timeout; the data read until then was written.
+         */
+        TIMED_OUT,
+        /**
+         * The server returned no data for the project.
+         */
+        NO_DATA,
+        /**
+         * An incremental download found no updated changes; the existing output was kept as is.
+         */
+        UNCHANGED,
+        /**
+         * The download failed, and no output was written.
+         */
+        FAILED
+    }
+
+    static class ProjectResult {
+        @Nonnull
+        final String projectName;
+        @Nonnull
+        final ProjectStatus status;
+        final int commitCount;
+        final long elapsedTime;
+        @Nullable
+        final String outputFilename;
+
+        ProjectResult(@Nonnull String projectName,
+                      @Nonnull ProjectStatus status,
+                      int commitCount,
+                      long elapsedTime,
+                      @Nullable String outputFilename) {
+            this.projectName = projectName;
+            this.status = status;
+            this.commitCount = commitCount;
+            this.elapsedTime = elapsedTime;
+            this.outputFilename = outputFilename;
+        }
+    }
+
     public Downloader(@Nonnull CommandLineParser commandLine) {
         this.commandLine = commandLine;
         gerritServer = new GerritServer(
                 commandLine.getServerName(),
                 commandLine.getServerPort(),
                 commandLine.getPrivateKey());
+
+        String serverUrl = commandLine.getServerUrl();
+        // each date window in flight reads one page at a time, and
+        // each REST page in flight may have an inline comment request running alongside it
+        int requestsPerProject = commandLine.getShardSize() > 0
+                ? Math.max(commandLine.getPagesInFlight(), commandLine.getWindowsInFlight())
+                : commandLine.getPagesInFlight();
+        int maxConcurrentRequests = commandLine.getParallelism() * requestsPerProject * (serverUrl != null ? 2 : 1);
+        if (commandLine.getMaxConcurrentRequests() > 0) {
+            maxConcurrentRequests = commandLine.getMaxConcurrentRequests();
+        }
+        governor = new RequestGovernor(maxConcurrentRequests,
+                commandLine.getMaxRequestsPerSecond(),
+                commandLine.getMaxRetries());
+
+        if (serverUrl != null) {
+            sshSession = null;
+            restClient = new GerritRestClient(serverUrl,
+                    commandLine.getHttpUser(),
+                    commandLine.getHttpPassword(),
+                    maxConcurrentRequests);
+        } else {
+            sshSession = new GerritSshSession(gerritServer,
+                    commandLine.getSshExecutable(),
+                    commandLine.isSshMultiplexingEnabled());
+            restClient = null;
+        }
+        downloadState = commandLine.isIncremental()
+                ? DownloadState.load(checkNotNull(commandLine.getOutputDir())) : null;
+        manifest = DownloadManifest.load(checkNotNull(commandLine.getOutputDir()));
+        metrics = new DownloadMetrics(checkNotNull(commandLine.getOutputDir()));
     }
 
     public void download() {
+        try {
+            if (sshSession != null) {
+                sshSession.open();
+            }
+            downloadAll();
+        } finally {
+            if (sshSession != null) {
+                sshSession.close();
+            }
+        }
+    }
+
+    private void downloadAll() {
         List<String> projectNames = commandLine.getProjectNames();
         if (projectNames == null || projectNames.isEmpty()) {
             projectNames = createProjectLister().getProjectListing();
         }
 
-        gerritVersion = GerritSsh.version(gerritServer);
+        gerritVersion = restClient != null
+                ? GerritRest.version(restClient) : GerritSsh.version(checkNotNull(sshSession));
         if (gerritVersion == null) {
             System.out.println("Could not query for Gerrit version, aborting.");
             System.out.println("Are you sure the server name is correct, and that you are connected to it?");
             return;
         }
 
+        ProgressReporter progress = new ProgressReporter(metrics, projectNames.size());
+        if (commandLine.isProgressEnabled()) {
+            progress.start();
+        }
+        List<ProjectResult> results;
+        try {
+            results = downloadProjects(projectNames, progress);
+        } finally {
+            progress.stop();
+            flushManifest();
+        }
+        printSummary(results);
+
+        String reportFilename = metrics.writeReport(checkNotNull(commandLine.getOutputDir()), results);
+        System.out.println("Wrote download metrics to " + reportFilename);
+    }
+
+    private void flushManifest() {
+        try {
+            manifest.flush();
+        } catch (IOException e) {
+            System.err.println("Writing the manifest of the output directory failed:");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Downloads the given projects using a pool of at most --parallelism workers.
+     * The results are returned in the same order as the project names.
+     */
+    @Nonnull
+    private List<ProjectResult> downloadProjects(@Nonnull List<String> projectNames,
+                                                 @Nonnull ProgressReporter progress) {
+        int threadCount = Math.max(1, Math.min(commandLine.getParallelism(), projectNames.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+
+        List<Future<ProjectResult>> futures = new ArrayList<>();
         for (String projectName : projectNames) {
-            AbstractGerritStatsDownloader downloader = createDownloader();
-            downloader.setOverallCommitLimit(commandLine.getCommitLimit());
-            downloader.setAfterDate(commandLine.getAfterDate());
-            downloader.setBeforeDate(commandLine.getBeforeDate());
-            downloader.setProjectName(projectName);
-            List<JSONObject> data = downloader.readData();
-            if (data.isEmpty()) {
-                System.out.println(String.format("No output was generated for project '%s'", projectName));
-            } else {
-                String outputDir = checkNotNull(commandLine.getOutputDir());
-                String outputFilename = outputDir + File.separator + projectNameToFilename(projectName);
-                writeJsonFile(outputFilename, data);
-                System.out.println("Wrote output to " + outputFilename);
+            futures.add(executor.submit(() -> {
+                try {
+                    return downloadProject(projectName);
+                } finally {
+                    progress.projectFinished();
+                }
+            }));
+        }
+        executor.shutdown();
+
+        List<ProjectResult> results = new ArrayList<>();
+        for (int i = 0; i < futures.size(); ++i) {
+            String projectName = projectNames.get(i);
+            try {
+                results.add(futures.get(i).get());
+            } catch (ExecutionException e) {
+                System.err.println(String.format("Downloading project '%s' failed:", projectName));
+                e.printStackTrace();
+                results.add(new ProjectResult(projectName, ProjectStatus.FAILED, 0, 0, null));
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return results;
+    }
+
+    @Nonnull
+    private ProjectResult downloadProject(@Nonnull String projectName) throws IOException {
+        long startTime = System.currentTimeMillis();
+
+        AbstractGerritStatsDownloader downloader = createDownloader();
+        downloader.setOverallCommitLimit(commandLine.getCommitLimit());
+        downloader.setAfterDate(commandLine.getAfterDate());
+        downloader.setBeforeDate(commandLine.getBeforeDate());
+        downloader.setProjectName(projectName);
+        downloader.setPagesInFlight(commandLine.getPagesInFlight());
+        downloader.setShardSize(commandLine.getShardSize());
+        downloader.setWindowsInFlight(commandLine.getWindowsInFlight());
+        downloader.setMetrics(metrics);
+        downloader.setGovernor(governor);
+        if (commandLine.getProjectTimeoutMinutes() > 0) {
+            downloader.setDeadline(startTime + TimeUnit.MINUTES.toMillis(commandLine.getProjectTimeoutMinutes()));
+        }
+
+        String outputDir = checkNotNull(commandLine.getOutputDir());
+        String outputFilename = outputDir + File.separator
+                + projectNameToFilename(projectName) + commandLine.getCompression().getExtension();
+
+        Long lastUpdated = downloadState != null ? downloadState.getLastUpdated(projectName) : null;
+        boolean mergeWithExisting = lastUpdated != null && new File(outputFilename).isFile();
+        if (mergeWithExisting) {
+            String incrementalAfterDate = formatIncrementalAfterDate(lastUpdated);
+            String afterDate = commandLine.getAfterDate();
+            if (afterDate == null || incrementalAfterDate.compareTo(afterDate) > 0) {
+                downloader.setAfterDate(incrementalAfterDate);
+            }
+            System.out.println(String.format("Downloading changes to '%s' updated after %s",
+                    projectName, incrementalAfterDate));
+        }
+
+        ChangeTracker tracker = new ChangeTracker(mergeWithExisting);
+        CommitJournal journal = commandLine.isResume() ? downloadIntoJournal(outputFilename, downloader) : null;
+        int commitCount = writeJsonFile(projectName, outputFilename, downloader, journal, tracker, mergeWithExisting);
+        // a download stopped by the timeout can still be continued with --resume
+        if (journal != null && !downloader.hasTimedOut()) {
+            journal.delete();
+        }
+        long elapsedTime = System.currentTimeMillis() - startTime;
+
+        ProjectStatus status;
+        if (mergeWithExisting && tracker.getChangeCount() == 0) {
+            status = ProjectStatus.UNCHANGED;
+        } else if (commitCount == 0) {
+            System.out.println(String.format("No output was generated for project '%s'", projectName));
+            return new ProjectResult(projectName, ProjectStatus.NO_DATA, 0, elapsedTime, null);
+        } else {
+            System.out.println("Wrote output to " + outputFilename);
+            status = downloader.hasTimedOut() ? ProjectStatus.TIMED_OUT : ProjectStatus.OK;
+        }
+
+        // A download that stopped early may have missed older changes, so the
+        // high-water mark is only moved forward once all updates have been read.
+        if (downloadState != null && status == ProjectStatus.OK && tracker.getNewestLastUpdated() != -1) {
+            long newestLastUpdated = tracker.getNewestLastUpdated();
+            if (lastUpdated != null) {
+                newestLastUpdated = Math.max(newestLastUpdated, lastUpdated);
+            }
+            downloadState.setLastUpdated(projectName, newestLastUpdated);
+        }
+        return new ProjectResult(projectName, status, commitCount, elapsedTime, outputFilename);
+    }
+
+    /**
+     * Returns the after: date for an incremental download. The query starts a day before the
+     * newest change seen, as the server may interpret the date in its own timezone; any changes
+     * downloaded twice are merged by change key.
+     */
+    @Nonnull
+    private static String formatIncrementalAfterDate(long lastUpdatedSecs) {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return dateFormat.format(new Date(TimeUnit.SECONDS.toMillis(lastUpdatedSecs) - TimeUnit.DAYS.toMillis(1)));
+    }
+
+    private static void printSummary(@Nonnull List<ProjectResult> results) {
+        System.out.println();
+        System.out.println("Download summary:");
+        for (ProjectResult result : results) {
+            System.out.println(String.format("  %-40s %-10s %8d commits %8.1fs  %s",
+                    result.projectName,
+                    result.status,
+                    result.commitCount,
+                    result.elapsedTime / 1000f,
+                    Strings.nullToEmpty(result.outputFilename)));
+        }
+    }
+
+    /**
+     * Streams the data read by the downloader into the journal of the output file, continuing from
+     * the last checkpoint of the journal left by an earlier run, if any. Used with --resume only,
+     * as the journal is written to disk once more as the output file. If the download fails, the journal
+     * is kept, so that it can be resumed.
+     */
+    @Nonnull
+    private CommitJournal downloadIntoJournal(@Nonnull String outputFilename,
+                                              @Nonnull AbstractGerritStatsDownloader downloader) throws IOException {
+        String query = String.format("%s %s after:%s before:%s limit:%d shard:%d",
+                restClient != null ? "rest" : "ssh",
+                downloader.getProjectName(),
+                downloader.getAfterDate(),
+                downloader.getBeforeDate(),
+                downloader.getOverallCommitLimit(),
+                downloader.getShardSize());
+        CommitJournal journal = CommitJournal.resume(outputFilename, query);
+
+        boolean completed = false;
+        try {
+            downloader.setResumePosition(journal.getResumePosition());
+            downloader.setCheckpointListener(journal::checkpoint);
+            downloader.readData(journal);
+            completed = true;
+        } finally {
+            journal.close();
+            if (!completed) {
+                System.err.println(String.format("The %d changes of '%s' read so far were kept; "
+                        + "run again with --resume to continue",
+                        journal.getChangeCount(), downloader.getProjectName()));
             }
         }
+        return journal;
     }
 
-    private void writeJsonFile(@Nonnull String outputFilename, @Nonnull List<JSONObject> data) {
-        JSONObject root = new JSONObject();
-        root.put("gerritStatsVersion", FILE_FORMAT_VERSION);
-        root.put("gerritVersion", gerritVersion.toString());
-        root.put("commits", data);
+    /**
+     * Streams the changes into the output file, returning the number of commits written. The changes are read
+     * from the journal if there is one, and otherwise straight from the downloader. The downloaders pass on
+     * each change only once, so the changes are written as they are.
+     * <p>
+     * If mergeWithExisting is set, the commits already in the output file are copied after the new ones,
+     * except for the changes that were just downloaded again. If nothing new was downloaded,
+     * the existing file is left untouched.
+     * <p>
+     * The written file is recorded in the manifest of the output directory.
+     */
+    private int writeJsonFile(@Nonnull String projectName,
+                              @Nonnull String outputFilename,
+                              @Nonnull AbstractGerritStatsDownloader downloader,
+                              @Nullable CommitJournal journal,
+                              @Nonnull ChangeTracker tracker,
+                              boolean mergeWithExisting) throws IOException {
+        try (CommitFileWriter writer = new CommitFileWriter(outputFilename, checkNotNull(gerritVersion))) {
+            if (journal != null) {
+                journal.readChanges(change -> writeChange(writer, tracker, change));
+            } else {
+                downloader.readData(change -> writeChange(writer, tracker, change));
+            }
+            if (mergeWithExisting) {
+                if (tracker.getChangeCount() == 0) {
+                    return 0;
+                }
+                CommitFileReader.readCommits(new File(outputFilename), change -> {
+                    if (!tracker.contains(change)) {
+                        writer.accept(commandLine.getProfile().apply(change));
+                    }
+                });
+            }
+            writer.finish();
 
-        FileWriter.writeFile(outputFilename, root.toString());
+            DownloadManifest.FileEntry manifestEntry = writer.createManifestEntry(projectName);
+            if (manifestEntry != null) {
+                manifest.setEntry(new File(outputFilename).getName(), manifestEntry);
+            }
+            return writer.getCommitCount();
+        }
+    }
+
+    private void writeChange(@Nonnull CommitFileWriter writer,
+                             @Nonnull ChangeTracker tracker,
+                             @Nonnull JSONObject change) {
+        tracker.add(change);
+        writer.accept(commandLine.getProfile().apply(change));
     }
 
     private ProjectLister createProjectLister() {
-        return new SshProjectLister(gerritServer);
+        if (restClient != null) {
+            return new RestProjectLister(gerritServer, restClient);
+        }
+        return new SshProjectLister(checkNotNull(sshSession));
     }
 
     private AbstractGerritStatsDownloader createDownloader() {
-        return new SshDownloader(gerritServer, checkNotNull(gerritVersion));
+        if (restClient != null) {
+            return new RestDownloader(gerritServer, restClient);
+        }
+        return new SshDownloader(checkNotNull(sshSession), checkNotNull(gerritVersion));
     }
 
     @Nonnull
@@ -0,0 +1,199 @@
+package com.holmsted.gerrit.downloaders;
+
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+import javax.annotation.Nonnull;
+
+import static com.holmsted.gerrit.downloaders.AbstractGerritStatsDownloader.NO_COMMIT_LIMIT;
+import static com.holmsted.gerrit.downloaders.AbstractGerritStatsDownloader.NO_DEADLINE;
+
+/**
+ * Reads the results of an offset-paged query with several pages requested at once.
+ * <p>
+ * The first page is read on its own, to learn how many rows the server returns per page.
+ * After that, the offsets of the following pages are known in advance, so up to pagesInFlight
+ * of them are requested concurrently and their latencies overlap. The pages are still passed on
+ * in offset order. Reading stops at the first page that reports no further changes,
+ * once the commit limit has been reached, or when the deadline has passed.
+ * <p>
+ * The pages read on the calling thread, i.e. the first page, and all pages with one page in flight,
+ * pass their changes on as they are read. The pages read concurrently are held until their turn.
+ * <p>
+ * Reading may start at a later offset, to continue an earlier download. After the changes of each page
+ * have been passed on, the page listener is called with the offset at which reading would continue.
+ */
+public class PipelinedPageReader {
+
+    @Nonnull
+    private final PageFetcher pageFetcher;
+    private final int pagesInFlight;
+    private final int commitLimit;
+    private final long deadline;
+
+    private int startOffset;
+    @Nonnull
+    private IntConsumer pageListener = nextOffset -> { };
+    private boolean timedOut;
+
+    /**
+     * Fetches one page of results, starting at the given row offset, passing its changes
+     * to the consumer. Called concurrently from several threads.
+     */
+    public interface PageFetcher {
+        @Nonnull
+        Page fetchPage(int startOffset, @Nonnull Consumer<JSONObject> consumer);
+    }
+
+    public static class Page {
+        private final int changeCount;
+        private final boolean moreChanges;
+
+        public Page(int changeCount, boolean moreChanges) {
+            this.changeCount = changeCount;
+            this.moreChanges = moreChanges;
+        }
+
+        public int getChangeCount() {
+            return changeCount;
+        }
+
+        public boolean hasMoreChanges() {
+            return moreChanges;
+        }
+    }
+
+    /**
+     * A page read concurrently, with its changes held until they are passed on.
+     */
+    private static class HeldPage {
+        @Nonnull
+        private final List<JSONObject> changes = new ArrayList<>();
+        private Page page;
+    }
+
+    public PipelinedPageReader(@Nonnull PageFetcher pageFetcher, int pagesInFlight, int commitLimit, long deadline) {
+        this.pageFetcher = pageFetcher;
+        this.pagesInFlight = Math.max(1, pagesInFlight);
+        this.commitLimit = commitLimit;
+        this.deadline = deadline;
+    }
+
+    /**
+     * Sets the offset of the first row to read. The commit limit counts the rows before it as read.
+     */
+    public void setStartOffset(int startOffset) {
+        this.startOffset = startOffset;
+    }
+
+    /**
+     * Sets the listener called with the offset of the next page, after each page has been passed on.
+     */
+    public void setPageListener(@Nonnull IntConsumer pageListener) {
+        this.pageListener = pageListener;
+    }
+
+    /**
+     * Reads pages until no further data is available or the limit is reached, passing each change
+     * to the consumer in query order. Returns the offset after the last row read.
+     */
+    public int read(@Nonnull Consumer<JSONObject> consumer) {
+        Page firstPage = pageFetcher.fetchPage(startOffset, consumer);
+
+        int pageSize = firstPage.changeCount;
+        int rowCount = startOffset + pageSize;
+        pageListener.accept(rowCount);
+        if (!firstPage.moreChanges || pageSize == 0 || !canReadMore(rowCount)) {
+            return rowCount;
+        }
+        if (pagesInFlight == 1) {
+            return readOneAtATime(rowCount, consumer);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(pagesInFlight);
+        try {
+            Deque<Future<HeldPage>> pendingPages = new ArrayDeque<>();
+            int nextOffset = rowCount;
+            boolean hasMoreChanges = true;
+            while (hasMoreChanges) {
+                while (pendingPages.size() < pagesInFlight && isWithinLimit(nextOffset)) {
+                    int startOffset = nextOffset;
+                    pendingPages.add(executor.submit(() -> {
+                        HeldPage heldPage = new HeldPage();
+                        heldPage.page = pageFetcher.fetchPage(startOffset, heldPage.changes::add);
+                        return heldPage;
+                    }));
+                    nextOffset += pageSize;
+                }
+                if (pendingPages.isEmpty()) {
+                    break;
+                }
+
+                HeldPage heldPage = waitForPage(pendingPages.remove());
+                heldPage.changes.forEach(consumer);
+                rowCount += heldPage.page.changeCount;
+                pageListener.accept(rowCount);
+                hasMoreChanges = heldPage.page.moreChanges && heldPage.page.changeCount > 0 && canReadMore(rowCount);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return rowCount;
+    }
+
+    /**
+     * Reads the pages after the first one on the calling thread, one after another.
+     */
+    private int readOneAtATime(int startOffset, @Nonnull Consumer<JSONObject> consumer) {
+        int rowCount = startOffset;
+        boolean hasMoreChanges = true;
+        while (hasMoreChanges) {
+            Page page = pageFetcher.fetchPage(rowCount, consumer);
+            rowCount += page.changeCount;
+            pageListener.accept(rowCount);
+            hasMoreChanges = page.moreChanges && page.changeCount > 0 && canReadMore(rowCount);
+        }
+        return rowCount;
+    }
+
+    public boolean hasTimedOut() {
+        return timedOut;
+    }
+
+    private boolean isWithinLimit(int rowCount) {
+        return commitLimit == NO_COMMIT_LIMIT || rowCount < commitLimit;
+    }
+
+    private boolean canReadMore(int rowCount) {
+        if (!isWithinLimit(rowCount)) {
+            return false;
+        }
+        if (deadline != NO_DEADLINE && System.currentTimeMillis() >= deadline) {
+            timedOut = true;
+            return false;
+        }
+        return true;
+    }
+
+    @Nonnull
+    private static HeldPage waitForPage(@Nonnull Future<HeldPage> pendingPage) {
+        try {
+            return pendingPage.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Reading a page of query results failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reading query results", e);
+        }
+    }
+}
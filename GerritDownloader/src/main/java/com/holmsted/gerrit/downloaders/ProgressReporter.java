@@ -0,0 +1,62 @@
+package com.holmsted.gerrit.downloaders;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Prints a line about the progress of the download at regular intervals, until stopped.
+ */
+@SuppressWarnings("PMD.DoNotUseThreads")
+class ProgressReporter {
+
+    private static final long INTERVAL_SECS = 5;
+    private static final double BYTES_PER_MB = 1024 * 1024;
+
+    @Nonnull
+    private final DownloadMetrics metrics;
+    private final int projectCount;
+    @Nonnull
+    private final AtomicInteger finishedProjectCount = new AtomicInteger();
+    @Nonnull
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "download-progress");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    ProgressReporter(@Nonnull DownloadMetrics metrics, int projectCount) {
+        this.metrics = metrics;
+        this.projectCount = projectCount;
+    }
+
+    void start() {
+        executor.scheduleAtFixedRate(this::printProgress, INTERVAL_SECS, INTERVAL_SECS, TimeUnit.SECONDS);
+    }
+
+    void projectFinished() {
+        finishedProjectCount.incrementAndGet();
+    }
+
+    void stop() {
+        executor.shutdownNow();
+    }
+
+    private void printProgress() {
+        DownloadMetrics.Totals totals = metrics.getTotals();
+        long elapsedTime = metrics.getElapsedTime();
+        System.err.println(String.format("Progress: %d/%d projects, %d requests (%d failed), %d rows, %.1f MB, "
+                        + "%d rows/s, %.0fs elapsed",
+                finishedProjectCount.get(),
+                projectCount,
+                totals.requestCount,
+                totals.failedCount,
+                totals.rowCount,
+                totals.byteCount / BYTES_PER_MB,
+                DownloadMetrics.perSecond(totals.rowCount, elapsedTime),
+                elapsedTime / 1000f));
+    }
+}
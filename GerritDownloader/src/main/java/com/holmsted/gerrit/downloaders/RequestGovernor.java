@@ -0,0 +1,238 @@
+package com.holmsted.gerrit.downloaders;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Keeps the downloader from overloading the server. All queries made for all projects pass through
+ * one governor, which
+ * <ul>
+ * <li>limits the rate at which requests are started, with a token bucket,</li>
+ * <li>limits the number of requests running at once,</li>
+ * <li>halves that number when a request fails or the server reports a run time well above
+ * its usual one, and raises it back one step at a time while the server keeps up,</li>
+ * <li>retries a failed request after a jittered, exponentially growing delay.</li>
+ * </ul>
+ * A retried request is run again as is, so a failed page is read again from the same offset.
+ */
+public class RequestGovernor {
+
+    public static final int DEFAULT_MAX_RETRIES = 3;
+
+    /**
+     * A server run time this many times the usual one counts as the server being overloaded.
+     */
+    private static final int SLOW_FACTOR = 3;
+    /**
+     * Run times below this are too short to tell anything about the server load.
+     */
+    private static final int MIN_SLOW_SERVER_TIME_MSEC = 100;
+    private static final double SERVER_TIME_SMOOTHING = 0.2;
+    private static final long DECREASE_INTERVAL_MSEC = 1000;
+    private static final long RETRY_BASE_DELAY_MSEC = 1000;
+    private static final long RETRY_MAX_DELAY_MSEC = 30 * 1000;
+
+    private final int maxConcurrentRequests;
+    private final double requestsPerSecond;
+    private final int maxRetries;
+
+    @Nonnull
+    private final Object lock = new Object();
+    private int concurrencyLimit;
+    private int runningCount;
+    private int successesSinceIncrease;
+    private long lastDecreaseTime;
+    private double usualServerTime = -1;
+
+    private double availableTokens;
+    private long lastRefillTime = System.nanoTime();
+
+    /**
+     * A single attempt at a request. Throws if the attempt failed.
+     */
+    public interface Attempt<T> {
+        @Nonnull
+        T run() throws IOException;
+    }
+
+    /**
+     * Thrown by an attempt that failed in a way that retrying will not fix, e.g. a request
+     * the server rejects as invalid.
+     */
+    public static class PermanentFailureException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public PermanentFailureException(@Nonnull IOException cause) {
+            super(cause.getMessage(), cause);
+        }
+
+        public PermanentFailureException(@Nonnull String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Creates a governor that runs at most maxConcurrentRequests requests at once, and starts
+     * at most requestsPerSecond requests per second. Zero disables either limit.
+     */
+    public RequestGovernor(int maxConcurrentRequests, double requestsPerSecond, int maxRetries) {
+        this.maxConcurrentRequests = Math.max(0, maxConcurrentRequests);
+        this.requestsPerSecond = Math.max(0, requestsPerSecond);
+        this.maxRetries = Math.max(0, maxRetries);
+        this.concurrencyLimit = this.maxConcurrentRequests;
+        this.availableTokens = Math.max(1, this.requestsPerSecond);
+    }
+
+    /**
+     * Runs the attempt once the limits allow it, retrying it if it fails. The figures
+     * of all attempts are added to the request metrics.
+     */
+    @Nonnull
+    public <T> T execute(@Nonnull DownloadMetrics.Request request, @Nonnull Attempt<T> attempt) throws IOException {
+        int retryCount = 0;
+        while (true) {
+            IOException failure;
+            boolean succeeded = false;
+            boolean cancelled = false;
+            acquire();
+            try {
+                T result = attempt.run();
+                succeeded = true;
+                return result;
+            } catch (IOException e) {
+                // a request that is no longer needed is not retried, nor held against the server
+                cancelled = Thread.currentThread().isInterrupted();
+                if (cancelled || retryCount >= maxRetries || !isRetryable(e)) {
+                    throw e;
+                }
+                failure = e;
+            } finally {
+                release(succeeded, cancelled, succeeded ? request.getServerTime() : -1);
+            }
+
+            ++retryCount;
+            request.incrementRetryCount();
+            long delay = getRetryDelay(retryCount);
+            System.err.println(String.format("Request failed, retrying in %.1fs (%d/%d): %s",
+                    delay / 1000f, retryCount, maxRetries, failure.getMessage()));
+            sleep(delay);
+        }
+    }
+
+    /**
+     * Returns the current limit of concurrent requests, or 0 if there is no limit.
+     */
+    public int getConcurrencyLimit() {
+        synchronized (lock) {
+            return concurrencyLimit;
+        }
+    }
+
+    private void acquire() throws InterruptedIOException {
+        sleep(reserveToken());
+        if (maxConcurrentRequests == 0) {
+            return;
+        }
+        synchronized (lock) {
+            while (runningCount >= concurrencyLimit) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    throw createInterruptedException(e);
+                }
+            }
+            ++runningCount;
+        }
+    }
+
+    /**
+     * Takes a token from the bucket, and returns how long to wait, in msec, until the token
+     * would have been available. Tokens may be taken in advance, so the waits of concurrent
+     * callers follow one another at the configured rate.
+     */
+    private long reserveToken() {
+        if (requestsPerSecond == 0) {
+            return 0;
+        }
+        synchronized (lock) {
+            long now = System.nanoTime();
+            double refilled = (now - lastRefillTime) / (double) TimeUnit.SECONDS.toNanos(1) * requestsPerSecond;
+            availableTokens = Math.min(Math.max(1, requestsPerSecond), availableTokens + refilled);
+            lastRefillTime = now;
+
+            availableTokens -= 1;
+            return availableTokens >= 0 ? 0 : (long) Math.ceil(-availableTokens / requestsPerSecond * 1000);
+        }
+    }
+
+    private void release(boolean succeeded, boolean cancelled, int serverTimeMsec) {
+        if (maxConcurrentRequests == 0) {
+            return;
+        }
+        synchronized (lock) {
+            --runningCount;
+            if (cancelled) {
+                lock.notifyAll();
+                return;
+            }
+            boolean isSlow = serverTimeMsec >= MIN_SLOW_SERVER_TIME_MSEC && usualServerTime > 0
+                    && serverTimeMsec > usualServerTime * SLOW_FACTOR;
+            if (serverTimeMsec >= 0) {
+                usualServerTime = usualServerTime < 0 ? serverTimeMsec
+                        : usualServerTime + (serverTimeMsec - usualServerTime) * SERVER_TIME_SMOOTHING;
+            }
+
+            if (!succeeded || isSlow) {
+                decreaseLimit(succeeded ? "the server is slowing down" : "a request failed");
+            } else if (concurrencyLimit < maxConcurrentRequests && ++successesSinceIncrease >= concurrencyLimit) {
+                ++concurrencyLimit;
+                successesSinceIncrease = 0;
+            }
+            lock.notifyAll();
+        }
+    }
+
+    private void decreaseLimit(@Nonnull String reason) {
+        long now = System.currentTimeMillis();
+        // the requests already running when the server slowed down are likely to report it too
+        if (now - lastDecreaseTime < DECREASE_INTERVAL_MSEC || concurrencyLimit == 1) {
+            return;
+        }
+        lastDecreaseTime = now;
+        successesSinceIncrease = 0;
+        concurrencyLimit = Math.max(1, concurrencyLimit / 2);
+        System.err.println(String.format("Reducing concurrent requests to %d, as %s", concurrencyLimit, reason));
+    }
+
+    private static boolean isRetryable(@Nonnull IOException exception) {
+        return !(exception instanceof PermanentFailureException);
+    }
+
+    private static long getRetryDelay(int retryCount) {
+        long delay = Math.min(RETRY_MAX_DELAY_MSEC, RETRY_BASE_DELAY_MSEC << (retryCount - 1));
+        return (long) (delay * ThreadLocalRandom.current().nextDouble(0.5, 1.5));
+    }
+
+    private static void sleep(long delayMsec) throws InterruptedIOException {
+        if (delayMsec <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(delayMsec);
+        } catch (InterruptedException e) {
+            throw createInterruptedException(e);
+        }
+    }
+
+    @Nonnull
+    private static InterruptedIOException createInterruptedException(@Nonnull InterruptedException cause) {
+        Thread.currentThread().interrupt();
+        InterruptedIOException exception = new InterruptedIOException("Interrupted while waiting to make a request");
+        exception.initCause(cause);
+        return exception;
+    }
+}
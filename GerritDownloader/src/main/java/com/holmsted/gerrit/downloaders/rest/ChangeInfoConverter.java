@@ -0,0 +1,288 @@
+package com.holmsted.gerrit.downloaders.rest;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Converts the ChangeInfo entities returned by the REST API into the json format
+ * of 'gerrit query --format=JSON', which is what GerritStats reads.
+ * <p>
+ * The REST API does not tell which patch set the current label votes were given on,
+ * so all approvals are attached to the current patch set. Likewise, the insertion and
+ * deletion counts are only known for the current patch set.
+ */
+class ChangeInfoConverter {
+
+    private static final DateTimeFormatter TIMESTAMP_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss", Locale.US);
+    private static final int TIMESTAMP_LENGTH = "yyyy-MM-dd HH:mm:ss".length();
+
+    private static final String SERVER_IDENTITY_NAME = "Gerrit Code Review";
+
+    private static final String REVISIONS = "revisions";
+    private static final String NUMBER = "number";
+    private static final String CREATED_ON = "createdOn";
+    private static final String COMMIT = "commit";
+    private static final String NAME = "name";
+    private static final String EMAIL = "email";
+    private static final String AUTHOR = "author";
+    private static final String MESSAGE = "message";
+
+    @Nonnull
+    private final String serverUrl;
+
+    ChangeInfoConverter(@Nonnull String serverUrl) {
+        this.serverUrl = serverUrl;
+    }
+
+    /**
+     * Converts the change. The inline comments are the result of /changes/{id}/comments,
+     * keyed by file name.
+     */
+    @Nonnull
+    JSONObject convert(@Nonnull JSONObject changeInfo, @Nullable JSONObject inlineComments) {
+        JSONObject owner = changeInfo.optJSONObject("owner");
+        int number = changeInfo.optInt("_number");
+        String status = changeInfo.optString("status");
+
+        JSONObject change = new JSONObject();
+        change.put("project", changeInfo.optString("project"));
+        change.put("branch", changeInfo.optString("branch"));
+        change.put("id", changeInfo.optString("change_id"));
+        change.put(NUMBER, number);
+        change.put("subject", changeInfo.optString("subject"));
+        change.put("owner", convertAccount(owner));
+        change.put("url", serverUrl + "/" + number);
+        change.put(CREATED_ON, parseTimestamp(changeInfo.optString("created")));
+        change.put("lastUpdated", parseTimestamp(changeInfo.optString("updated")));
+        change.put("open", "NEW".equals(status) || "DRAFT".equals(status));
+        change.put("status", status);
+        change.put("allReviewers", convertReviewers(changeInfo));
+        change.put("comments", convertMessages(changeInfo.optJSONArray("messages")));
+
+        String currentRevision = changeInfo.optString("current_revision");
+        JSONObject revisions = changeInfo.optJSONObject(REVISIONS);
+        if (revisions != null && revisions.has(currentRevision)) {
+            JSONObject commit = revisions.getJSONObject(currentRevision).optJSONObject(COMMIT);
+            if (commit != null) {
+                change.put("commitMessage", commit.optString(MESSAGE));
+            }
+        }
+        change.put("patchSets", convertRevisions(changeInfo, inlineComments));
+        return change;
+    }
+
+    @Nonnull
+    private JSONArray convertRevisions(@Nonnull JSONObject changeInfo, @Nullable JSONObject inlineComments) {
+        JSONObject revisions = changeInfo.optJSONObject(REVISIONS);
+        if (revisions == null) {
+            return new JSONArray();
+        }
+
+        List<JSONObject> patchSets = new ArrayList<>();
+
+        String currentRevision = changeInfo.optString("current_revision");
+        for (String revision : getNames(revisions)) {
+            JSONObject revisionInfo = revisions.getJSONObject(revision);
+            JSONObject uploader = convertAccount(revisionInfo.optJSONObject("uploader"));
+            int patchSetNumber = revisionInfo.optInt("_number");
+
+            JSONObject patchSet = new JSONObject();
+            patchSet.put(NUMBER, patchSetNumber);
+            patchSet.put("revision", revision);
+            patchSet.put("ref", revisionInfo.optString("ref"));
+            patchSet.put("uploader", uploader);
+            patchSet.put(CREATED_ON, parseTimestamp(revisionInfo.optString("created")));
+            patchSet.put("isDraft", revisionInfo.optBoolean("draft"));
+            if (revisionInfo.has("kind")) {
+                patchSet.put("kind", revisionInfo.getString("kind"));
+            }
+
+            JSONObject commit = revisionInfo.optJSONObject(COMMIT);
+            JSONArray parents = new JSONArray();
+            if (commit != null) {
+                JSONArray parentCommits = commit.optJSONArray("parents");
+                for (int i = 0; parentCommits != null && i < parentCommits.length(); ++i) {
+                    parents.put(parentCommits.getJSONObject(i).optString(COMMIT));
+                }
+                patchSet.put(AUTHOR, convertGitAuthor(commit.optJSONObject(AUTHOR), uploader));
+            }
+            patchSet.put("parents", parents);
+
+            if (revision.equals(currentRevision)) {
+                patchSet.put("approvals", convertLabels(changeInfo));
+                patchSet.put("sizeInsertions", changeInfo.optInt("insertions"));
+                patchSet.put("sizeDeletions", -changeInfo.optInt("deletions"));
+            } else {
+                patchSet.put("approvals", new JSONArray());
+            }
+            patchSet.put("comments", convertInlineComments(inlineComments, patchSetNumber));
+            patchSets.add(patchSet);
+        }
+
+        patchSets.sort((left, right) -> Integer.compare(left.getInt(NUMBER), right.getInt(NUMBER)));
+        return new JSONArray(patchSets);
+    }
+
+    @Nonnull
+    private static JSONArray convertReviewers(@Nonnull JSONObject changeInfo) {
+        JSONArray result = new JSONArray();
+        JSONObject reviewers = changeInfo.optJSONObject("reviewers");
+        if (reviewers == null) {
+            return result;
+        }
+
+        Set<Integer> accountIds = new HashSet<>();
+        for (String state : new String[] {"REVIEWER", "CC"}) {
+            JSONArray accounts = reviewers.optJSONArray(state);
+            for (int i = 0; accounts != null && i < accounts.length(); ++i) {
+                JSONObject account = accounts.getJSONObject(i);
+                if (accountIds.add(account.optInt("_account_id"))) {
+                    result.put(convertAccount(account));
+                }
+            }
+        }
+        return result;
+    }
+
+    @Nonnull
+    private static JSONArray convertMessages(@Nullable JSONArray messages) {
+        JSONArray comments = new JSONArray();
+        for (int i = 0; messages != null && i < messages.length(); ++i) {
+            JSONObject message = messages.getJSONObject(i);
+            JSONObject comment = new JSONObject();
+            comment.put("timestamp", parseTimestamp(message.optString("date")));
+            comment.put("reviewer", convertAccount(message.optJSONObject(AUTHOR)));
+            comment.put(MESSAGE, message.optString(MESSAGE));
+            comments.put(comment);
+        }
+        return comments;
+    }
+
+    /**
+     * Returns the current votes on the change, and a submit record if the change was merged.
+     */
+    @Nonnull
+    private static JSONArray convertLabels(@Nonnull JSONObject changeInfo) {
+        JSONArray approvals = new JSONArray();
+        JSONObject labels = changeInfo.optJSONObject("labels");
+        if (labels != null) {
+            for (String label : getNames(labels)) {
+                JSONArray votes = labels.getJSONObject(label).optJSONArray("all");
+                for (int i = 0; votes != null && i < votes.length(); ++i) {
+                    JSONObject vote = votes.getJSONObject(i);
+                    int value = vote.optInt("value");
+                    if (value != 0) {
+                        approvals.put(createApproval(label, label, value,
+                                parseTimestamp(vote.optString("date")), vote));
+                    }
+                }
+            }
+        }
+
+        if ("MERGED".equals(changeInfo.optString("status")) && changeInfo.has("submitted")) {
+            approvals.put(createApproval("SUBM", "Submitted", 1,
+                    parseTimestamp(changeInfo.getString("submitted")), changeInfo.optJSONObject("submitter")));
+        }
+        return approvals;
+    }
+
+    @Nonnull
+    private static JSONObject createApproval(@Nonnull String type, @Nonnull String description, int value,
+                                             long grantedOn, @Nullable JSONObject account) {
+        JSONObject approval = new JSONObject();
+        approval.put("type", type);
+        approval.put("description", description);
+        approval.put("value", String.valueOf(value));
+        approval.put("grantedOn", grantedOn);
+        approval.put("by", convertAccount(account));
+        return approval;
+    }
+
+    @Nonnull
+    private static JSONArray convertInlineComments(@Nullable JSONObject inlineComments, int patchSetNumber) {
+        JSONArray result = new JSONArray();
+        if (inlineComments == null) {
+            return result;
+        }
+        for (String file : getNames(inlineComments)) {
+            JSONArray fileComments = inlineComments.getJSONArray(file);
+            for (int i = 0; i < fileComments.length(); ++i) {
+                JSONObject commentInfo = fileComments.getJSONObject(i);
+                if (commentInfo.optInt("patch_set") != patchSetNumber) {
+                    continue;
+                }
+                JSONObject comment = new JSONObject();
+                comment.put("file", file);
+                comment.put("line", commentInfo.optInt("line"));
+                comment.put("reviewer", convertAccount(commentInfo.optJSONObject(AUTHOR)));
+                comment.put(MESSAGE, commentInfo.optString(MESSAGE));
+                result.put(comment);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Converts an AccountInfo into an identity. Changes made by the server itself have no
+     * account, and are attributed to Gerrit, as in the query output.
+     */
+    @Nonnull
+    private static JSONObject convertAccount(@Nullable JSONObject account) {
+        JSONObject identity = new JSONObject();
+        if (account == null) {
+            identity.put(NAME, SERVER_IDENTITY_NAME);
+            return identity;
+        }
+        for (String key : new String[] {NAME, EMAIL, "username"}) {
+            if (account.has(key)) {
+                identity.put(key, account.getString(key));
+            }
+        }
+        return identity;
+    }
+
+    /**
+     * The git author has no username; if it is the same person as the uploader,
+     * the uploader account is used so that both resolve to the same identity.
+     */
+    @Nonnull
+    private static JSONObject convertGitAuthor(@Nullable JSONObject gitPerson, @Nonnull JSONObject uploader) {
+        if (gitPerson == null || gitPerson.optString(EMAIL).equalsIgnoreCase(uploader.optString(EMAIL))) {
+            return uploader;
+        }
+        JSONObject author = new JSONObject();
+        author.put(NAME, gitPerson.optString(NAME));
+        author.put(EMAIL, gitPerson.optString(EMAIL));
+        return author;
+    }
+
+    @Nonnull
+    private static String[] getNames(@Nonnull JSONObject object) {
+        String[] names = JSONObject.getNames(object);
+        return names != null ? names : new String[0];
+    }
+
+    /**
+     * Parses a REST API timestamp, e.g. "2013-02-01 09:59:32.126000000" in UTC, into seconds since the epoch.
+     */
+    static long parseTimestamp(@Nullable String timestamp) {
+        if (timestamp == null || timestamp.length() < TIMESTAMP_LENGTH) {
+            return 0;
+        }
+        return LocalDateTime.parse(timestamp.substring(0, TIMESTAMP_LENGTH), TIMESTAMP_FORMAT)
+                .toEpochSecond(ZoneOffset.UTC);
+    }
+}
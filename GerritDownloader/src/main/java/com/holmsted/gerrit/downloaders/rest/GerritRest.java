@@ -0,0 +1,45 @@
+package com.holmsted.gerrit.downloaders.rest;
+
+import com.holmsted.gerrit.GerritVersion;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+public final class GerritRest {
+
+    @Nonnull
+    public static List<String> listProjects(@Nonnull GerritRestClient client) {
+        try {
+            JSONObject projects = (JSONObject) client.getJson("/projects/");
+            List<String> projectList = new ArrayList<>();
+            String[] projectNames = JSONObject.getNames(projects);
+            if (projectNames != null) {
+                Collections.addAll(projectList, projectNames);
+                Collections.sort(projectList);
+            }
+            return projectList;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static GerritVersion version(@Nonnull GerritRestClient client) {
+        try {
+            Object version = client.getJson("/config/server/version");
+            return GerritVersion.fromString(version.toString());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private GerritRest() {
+    }
+}
@@ -0,0 +1,193 @@
+package com.holmsted.gerrit.downloaders.rest;
+
+import com.google.common.base.Strings;
+import com.google.common.io.CountingInputStream;
+import com.holmsted.gerrit.downloaders.DownloadMetrics;
+
+import org.json.JSONTokener;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.zip.GZIPInputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Makes GET requests against the Gerrit REST API.
+ * <p>
+ * Connections are kept alive and reused between requests through the HttpURLConnection
+ * connection cache, which is sized so that every concurrent request can keep its own
+ * connection. For a connection to be reused, each response must be read fully and closed,
+ * including error responses.
+ */
+public class GerritRestClient {
+
+    /**
+     * Gerrit prefixes all JSON responses with this line to prevent XSSI.
+     */
+    private static final String XSSI_PREFIX = ")]}'";
+
+    private static final String MAX_CONNECTIONS_PROPERTY = "http.maxConnections";
+    private static final int CONNECT_TIMEOUT_MSEC = 30 * 1000;
+    private static final int READ_TIMEOUT_MSEC = 5 * 60 * 1000;
+    private static final int MAX_ERROR_OUTPUT_CHARS = 1024;
+
+    @Nonnull
+    private final String serverUrl;
+    @Nonnull
+    private final String apiUrl;
+    @Nullable
+    private final String authorization;
+
+    /**
+     * Creates a client for the server at the given base URL. If a username is given,
+     * the authenticated /a/ endpoints are used with HTTP basic authentication.
+     * The maxConnections value is the highest number of concurrent requests that will be made.
+     */
+    public GerritRestClient(@Nonnull String serverUrl,
+                            @Nullable String username,
+                            @Nullable String password,
+                            int maxConnections) {
+        this.serverUrl = serverUrl;
+        if (!Strings.isNullOrEmpty(username)) {
+            this.apiUrl = serverUrl + "/a";
+            String credentials = username + ":" + Strings.nullToEmpty(password);
+            this.authorization = "Basic "
+                    + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8));
+        } else {
+            this.apiUrl = serverUrl;
+            this.authorization = null;
+        }
+
+        // The keep-alive cache only holds 5 idle connections per server by default.
+        // The property is read when the first connection is made.
+        if (System.getProperty(MAX_CONNECTIONS_PROPERTY) == null) {
+            System.setProperty(MAX_CONNECTIONS_PROPERTY, String.valueOf(Math.max(maxConnections, 1)));
+        }
+    }
+
+    /**
+     * Thrown when the server responds with an error status.
+     */
+    public static class HttpResponseException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final int responseCode;
+
+        HttpResponseException(@Nonnull String message, int responseCode) {
+            super(message);
+            this.responseCode = responseCode;
+        }
+
+        public int getResponseCode() {
+            return responseCode;
+        }
+    }
+
+    @Nonnull
+    public String getServerUrl() {
+        return serverUrl;
+    }
+
+    /**
+     * Requests the given path, e.g. "/changes/?q=...", and returns the parsed JSON response:
+     * a JSONObject, JSONArray, or a plain value.
+     */
+    @Nonnull
+    public Object getJson(@Nonnull String path) throws IOException {
+        return getJson(path, null);
+    }
+
+    /**
+     * Requests the given path like {@link #getJson(String)}, adding the number of bytes received
+     * to the given request metrics.
+     */
+    @Nonnull
+    public Object getJson(@Nonnull String path, @Nullable DownloadMetrics.Request request) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(apiUrl + path).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MSEC);
+        connection.setReadTimeout(READ_TIMEOUT_MSEC);
+        connection.setRequestProperty("Accept", "application/json");
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        if (authorization != null) {
+            connection.setRequestProperty("Authorization", authorization);
+        }
+
+        int responseCode = connection.getResponseCode();
+        if (responseCode != HttpURLConnection.HTTP_OK) {
+            String error = readError(connection);
+            throw new HttpResponseException(String.format("Request to %s failed with HTTP %d: %s",
+                    connection.getURL(), responseCode, error), responseCode);
+        }
+
+        CountingInputStream inputStream = new CountingInputStream(connection.getInputStream());
+        try (Reader reader = createReader(connection, inputStream)) {
+            skipXssiPrefix(reader);
+            return new JSONTokener(reader).nextValue();
+        } finally {
+            if (request != null) {
+                request.addBytes(inputStream.getCount());
+            }
+        }
+    }
+
+    @Nonnull
+    public static String encode(@Nonnull String value) {
+        try {
+            return URLEncoder.encode(value, StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Nonnull
+    private static Reader createReader(@Nonnull HttpURLConnection connection,
+                                       @Nonnull InputStream inputStream) throws IOException {
+        InputStream stream = inputStream;
+        if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+            stream = new GZIPInputStream(stream);
+        }
+        return new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+    }
+
+    private static void skipXssiPrefix(@Nonnull Reader reader) throws IOException {
+        reader.mark(XSSI_PREFIX.length());
+        char[] prefix = new char[XSSI_PREFIX.length()];
+        int readChars = reader.read(prefix);
+        if (readChars != prefix.length || !XSSI_PREFIX.equals(new String(prefix))) {
+            reader.reset();
+        }
+    }
+
+    /**
+     * Reads the error response fully, so that the connection can be reused, and returns its beginning.
+     */
+    @Nonnull
+    private static String readError(@Nonnull HttpURLConnection connection) throws IOException {
+        InputStream errorStream = connection.getErrorStream();
+        if (errorStream == null) {
+            return "";
+        }
+        StringBuilder error = new StringBuilder();
+        char[] buffer = new char[1024];
+        try (Reader reader = createReader(connection, errorStream)) {
+            int readChars = reader.read(buffer);
+            while (readChars != -1) {
+                int keptChars = Math.min(readChars, MAX_ERROR_OUTPUT_CHARS - error.length());
+                error.append(buffer, 0, keptChars);
+                readChars = reader.read(buffer);
+            }
+        }
+        return error.toString().trim();
+    }
+}
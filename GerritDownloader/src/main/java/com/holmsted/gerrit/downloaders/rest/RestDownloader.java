@@ -0,0 +1,178 @@
+package com.holmsted.gerrit.downloaders.rest;
+
+import com.holmsted.gerrit.GerritServer;
+import com.holmsted.gerrit.downloaders.AbstractGerritStatsDownloader;
+import com.holmsted.gerrit.downloaders.DownloadMetrics;
+import com.holmsted.gerrit.downloaders.PipelinedPageReader;
+import com.holmsted.gerrit.downloaders.RequestGovernor;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Reads change data through the Gerrit REST API, converted into the same format
+ * as the SSH query output.
+ * <p>
+ * Several pages of the query are requested at once over kept-alive connections;
+ * see {@link PipelinedPageReader}. The inline comments of each change are fetched separately,
+ * as the changes endpoint does not include them; these requests are also made concurrently,
+ * as many at a time as there are pages in flight.
+ * <p>
+ * The position reported at each checkpoint is the offset of the next page.
+ */
+public class RestDownloader extends AbstractGerritStatsDownloader {
+
+    private static final String QUERY_OPTIONS = "&o=ALL_REVISIONS"
+            + "&o=ALL_COMMITS"
+            + "&o=DETAILED_ACCOUNTS"
+            + "&o=DETAILED_LABELS"
+            + "&o=MESSAGES";
+
+    private static final String OFFSET_KEY = "offset";
+
+    private static final int HTTP_CLIENT_ERROR = 400;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    private static final int HTTP_SERVER_ERROR = 500;
+
+    @Nonnull
+    private final GerritRestClient client;
+    @Nonnull
+    private final ChangeInfoConverter converter;
+
+    public RestDownloader(@Nonnull GerritServer gerritServer, @Nonnull GerritRestClient client) {
+        super(gerritServer);
+        this.client = client;
+        this.converter = new ChangeInfoConverter(client.getServerUrl());
+    }
+
+    @Override
+    public void readData(@Nonnull Consumer<JSONObject> consumer) {
+        if (getOverallCommitLimit() != NO_COMMIT_LIMIT) {
+            System.out.println(String.format("Reading data from %s for last %d commits",
+                    client.getServerUrl(), getOverallCommitLimit()));
+        } else {
+            System.out.println("Reading all commit data from " + client.getServerUrl());
+        }
+
+        String query = createQuery();
+        ExecutorService commentExecutor = Executors.newFixedThreadPool(getPagesInFlight());
+        try {
+            PipelinedPageReader reader = new PipelinedPageReader(
+                    (startOffset, pageConsumer) -> readPage(query, startOffset, commentExecutor, pageConsumer),
+                    getPagesInFlight(),
+                    getOverallCommitLimit(),
+                    getDeadline());
+            JSONObject resumePosition = getResumePosition();
+            if (resumePosition != null) {
+                reader.setStartOffset(resumePosition.optInt(OFFSET_KEY));
+            }
+            reader.setPageListener(nextOffset ->
+                    getCheckpointListener().onCheckpoint(new JSONObject().put(OFFSET_KEY, nextOffset)));
+            reader.read(consumer);
+            setTimedOut(reader.hasTimedOut());
+        } finally {
+            commentExecutor.shutdownNow();
+        }
+    }
+
+    @Nonnull
+    private String createQuery() {
+        StringBuilder query = new StringBuilder(String.format("project:{%s}", getProjectName()));
+        if (getAfterDate() != null) {
+            query.append(String.format(" after:{%s}", getAfterDate()));
+        }
+        if (getBeforeDate() != null) {
+            query.append(String.format(" before:{%s}", getBeforeDate()));
+        }
+        return query.toString();
+    }
+
+    @Nonnull
+    private PipelinedPageReader.Page readPage(@Nonnull String query,
+                                              int startOffset,
+                                              @Nonnull ExecutorService commentExecutor,
+                                              @Nonnull Consumer<JSONObject> consumer) {
+        String path = "/changes/?q=" + GerritRestClient.encode(query) + QUERY_OPTIONS
+                + (startOffset != 0 ? "&S=" + startOffset : "");
+
+        JSONArray changeInfos = (JSONArray) getJson(path);
+
+        List<Future<JSONObject>> inlineComments = new ArrayList<>(changeInfos.length());
+        for (int i = 0; i < changeInfos.length(); ++i) {
+            int changeNumber = changeInfos.getJSONObject(i).getInt("_number");
+            inlineComments.add(commentExecutor.submit(() -> readInlineComments(changeNumber)));
+        }
+
+        boolean moreChanges = false;
+        for (int i = 0; i < changeInfos.length(); ++i) {
+            JSONObject changeInfo = changeInfos.getJSONObject(i);
+            moreChanges = changeInfo.optBoolean("_more_changes");
+            consumer.accept(converter.convert(changeInfo, waitForInlineComments(inlineComments.get(i))));
+        }
+        return new PipelinedPageReader.Page(changeInfos.length(), moreChanges);
+    }
+
+    @Nonnull
+    private JSONObject readInlineComments(int changeNumber) {
+        return (JSONObject) getJson(String.format("/changes/%d/comments", changeNumber));
+    }
+
+    /**
+     * Requests the path through the governor and records the figures of the request. The row count
+     * is the number of changes for a query, and the number of files with comments for a comments request.
+     * Client errors other than too many requests are not retried.
+     */
+    @Nonnull
+    private Object getJson(@Nonnull String path) {
+        DownloadMetrics.Request request = getMetrics().start(getProjectName(), "rest", path);
+        boolean succeeded = false;
+        try {
+            Object response = getGovernor().execute(request, () -> {
+                try {
+                    return client.getJson(path, request);
+                } catch (GerritRestClient.HttpResponseException e) {
+                    if (e.getResponseCode() >= HTTP_CLIENT_ERROR && e.getResponseCode() < HTTP_SERVER_ERROR
+                            && e.getResponseCode() != HTTP_TOO_MANY_REQUESTS) {
+                        throw new RequestGovernor.PermanentFailureException(e);
+                    }
+                    throw e;
+                }
+            });
+            if (response instanceof JSONArray) {
+                request.setRowCount(((JSONArray) response).length());
+            } else if (response instanceof JSONObject) {
+                request.setRowCount(((JSONObject) response).length());
+            }
+            succeeded = true;
+            return response;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            getMetrics().finish(request, succeeded);
+        }
+    }
+
+    @Nonnull
+    private static JSONObject waitForInlineComments(@Nonnull Future<JSONObject> inlineComments) {
+        try {
+            return inlineComments.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Reading inline comments failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reading inline comments", e);
+        }
+    }
+}
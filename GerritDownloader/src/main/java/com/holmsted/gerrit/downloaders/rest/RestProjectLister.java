@@ -0,0 +1,27 @@
+package com.holmsted.gerrit.downloaders.rest;
+
+import com.holmsted.gerrit.GerritServer;
+import com.holmsted.gerrit.downloaders.ProjectLister;
+
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Creates a listing of all Gerrit projects on the given server, using the REST API.
+ */
+public class RestProjectLister extends ProjectLister {
+
+    @Nonnull
+    private final GerritRestClient client;
+
+    public RestProjectLister(@Nonnull GerritServer gerritServer, @Nonnull GerritRestClient client) {
+        super(gerritServer);
+        this.client = client;
+    }
+
+    @Nonnull
+    public List<String> getProjectListing() {
+        return GerritRest.listProjects(client);
+    }
+}
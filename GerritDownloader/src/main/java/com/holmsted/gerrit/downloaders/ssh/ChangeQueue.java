@@ -0,0 +1,127 @@
+package com.holmsted.gerrit.downloaders.ssh;
+
+import com.holmsted.gerrit.downloaders.AbstractGerritStatsDownloader.CheckpointListener;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Hands the changes read by a query on one thread over to another thread, which passes them on
+ * in the same order. This lets several queries run concurrently, while their results are still
+ * passed on one query at a time.
+ * <p>
+ * Checkpoints queued between the changes are handed over in order too, so that the position
+ * they carry is only reported once the changes before it have been passed on.
+ * <p>
+ * The queue holds only a few changes. A query that gets ahead of the thread passing its changes on
+ * waits for it, so that the changes of the queries still waiting for their turn are not all held in memory.
+ * It only waits between pages, though: the changes of a page are held until the checkpoint after it
+ * and then handed over. While a page is being read, the query holds one of the requests the governor
+ * allows at once, and waiting then could leave the query being passed on with none to read its next page.
+ */
+class ChangeQueue implements Consumer<JSONObject> {
+
+    private static final Object END_OF_CHANGES = new Object();
+    private static final int CAPACITY = 256;
+
+    @Nonnull
+    private final BlockingQueue<Object> items = new ArrayBlockingQueue<>(CAPACITY);
+    /**
+     * The changes of the page being read, only accessed by the thread reading the query.
+     */
+    @Nonnull
+    private final List<JSONObject> pageChanges = new ArrayList<>();
+
+    private static final class Checkpoint {
+        @Nonnull
+        final JSONObject position;
+
+        Checkpoint(@Nonnull JSONObject position) {
+            this.position = position;
+        }
+    }
+
+    @Override
+    public void accept(@Nonnull JSONObject change) {
+        pageChanges.add(change);
+    }
+
+    /**
+     * Queues the changes of the page read since the previous checkpoint, and a checkpoint after them.
+     */
+    public void checkpoint(@Nonnull JSONObject position) {
+        putPageChanges();
+        put(new Checkpoint(position));
+    }
+
+    /**
+     * Marks the end of the changes. Must be called even if reading the query failed.
+     * If the thread was interrupted, nothing is passed on any more, and the end is not marked.
+     */
+    public void close() {
+        if (!Thread.currentThread().isInterrupted()) {
+            putPageChanges();
+            put(END_OF_CHANGES);
+        }
+    }
+
+    /**
+     * Passes on the changes and checkpoints as they arrive, until the queue is closed.
+     */
+    public void passChangesTo(@Nonnull Consumer<JSONObject> consumer, @Nonnull CheckpointListener listener) {
+        passChangesTo(consumer, listener, () -> false);
+    }
+
+    /**
+     * Passes on the changes and checkpoints as they arrive, until the queue is closed or, after passing on
+     * a checkpoint, the stop condition holds. Returns whether the stop condition ended the passing.
+     * The query must then be stopped by the caller, as the queue is no longer drained.
+     */
+    public boolean passChangesTo(@Nonnull Consumer<JSONObject> consumer,
+                                 @Nonnull CheckpointListener listener,
+                                 @Nonnull BooleanSupplier stopCondition) {
+        try {
+            Object item = items.take();
+            while (!END_OF_CHANGES.equals(item)) {
+                if (item instanceof Checkpoint) {
+                    listener.onCheckpoint(((Checkpoint) item).position);
+                    if (stopCondition.getAsBoolean()) {
+                        return true;
+                    }
+                } else {
+                    consumer.accept((JSONObject) item);
+                }
+                item = items.take();
+            }
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for query results", e);
+        }
+    }
+
+    private void putPageChanges() {
+        pageChanges.forEach(this::put);
+        pageChanges.clear();
+    }
+
+    /**
+     * Queues the item, waiting for room in the queue.
+     */
+    private void put(@Nonnull Object item) {
+        try {
+            items.put(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while handing over query results", e);
+        }
+    }
+}
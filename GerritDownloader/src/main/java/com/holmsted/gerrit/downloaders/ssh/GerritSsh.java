@@ -1,6 +1,5 @@
 package com.holmsted.gerrit.downloaders.ssh;
 
-import com.holmsted.gerrit.GerritServer;
 import com.holmsted.gerrit.GerritVersion;
 
 import java.util.ArrayList;
@@ -11,8 +10,8 @@ import javax.annotation.Nonnull;
 
 public final class GerritSsh {
 
-    public static List<String> listProjects(@Nonnull GerritServer gerritServer) {
-        GerritSshCommand sshCommand = new GerritSshCommand(gerritServer);
+    public static List<String> listProjects(@Nonnull GerritSshSession session) {
+        GerritSshCommand sshCommand = new GerritSshCommand(session);
         String output = sshCommand.exec("ls-projects");
 
         List<String> projectList = new ArrayList<>();
@@ -20,8 +19,8 @@ public final class GerritSsh {
         return projectList;
     }
 
-    public static GerritVersion version(@Nonnull GerritServer gerritServer) {
-        GerritSshCommand sshCommand = new GerritSshCommand(gerritServer);
+    public static GerritVersion version(@Nonnull GerritSshSession session) {
+        GerritSshCommand sshCommand = new GerritSshCommand(session);
         String output = sshCommand.exec("version");
         if (output != null) {
             return GerritVersion.fromString(output.substring(output.lastIndexOf(' ') + 1));
@@ -1,62 +1,139 @@
 package com.holmsted.gerrit.downloaders.ssh;
 
-import com.holmsted.gerrit.GerritServer;
+import com.google.common.base.Joiner;
+import com.google.common.io.CountingInputStream;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.Consumer;
 
 import javax.annotation.Nonnull;
 
 public class GerritSshCommand {
+    /**
+     * The amount of stderr output kept for error reporting; anything beyond it is read and discarded.
+     */
+    private static final int MAX_ERROR_OUTPUT_CHARS = 64 * 1024;
+
     @Nonnull
-    private final GerritServer gerritServer;
+    private final GerritSshSession session;
+
+    private long bytesRead;
 
-    public GerritSshCommand(@Nonnull GerritServer gerritServer) {
-        this.gerritServer = gerritServer;
+    public GerritSshCommand(@Nonnull GerritSshSession session) {
+        this.session = session;
     }
 
+    /**
+     * Runs the command and returns its whole output, or null if the command failed.
+     */
     public String exec(@Nonnull String gerritCommand) {
-        Runtime runtime = Runtime.getRuntime();
+        StringBuilder output = new StringBuilder();
+        boolean succeeded = exec(gerritCommand, line -> output.append(line).append('\n'));
+        return succeeded ? output.toString() : null;
+    }
+
+    /**
+     * Runs the command and passes each line of its output to the consumer as soon as it has been read.
+     * Stderr is drained on a separate thread, so that the process cannot block on a full pipe.
+     * Returns whether the command succeeded.
+     */
+    public boolean exec(@Nonnull String gerritCommand, @Nonnull Consumer<String> lineConsumer) {
+        Process exec = null;
         try {
-            String privateKey = gerritServer.getPrivateKey();
-            String command = String.format("ssh -p %s %s %s gerrit %s",
-                    String.valueOf(gerritServer.getPort()),
-                            privateKey != null ? "-i " + privateKey : "",
-                            gerritServer.getServerName(),
-                    gerritCommand);
-            System.out.println(command);
+            List<String> command = session.createCommandLine(gerritCommand);
+            System.out.println(Joiner.on(' ').join(command));
 
-            Process exec = runtime.exec(command, null);
+            exec = new ProcessBuilder(command).start();
+            exec.getOutputStream().close();
 
-            char[] buffer = new char[1024];
-            int readChars;
+            ErrorStreamDrainer errorDrainer = new ErrorStreamDrainer(exec.getErrorStream());
+            errorDrainer.start();
 
-            BufferedReader readerOut = new BufferedReader(new InputStreamReader(exec.getInputStream(), "UTF-8"));
-            StringBuilder output = new StringBuilder();
-            while ((readChars = readerOut.read(buffer)) != -1) {
-                output.append(String.copyValueOf(buffer, 0, readChars));
+            CountingInputStream inputStream = new CountingInputStream(exec.getInputStream());
+            try (BufferedReader readerOut = new BufferedReader(
+                    new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+                String line = readerOut.readLine();
+                while (line != null) {
+                    lineConsumer.accept(line);
+                    line = readerOut.readLine();
+                }
+            } finally {
+                bytesRead = inputStream.getCount();
             }
-            readerOut.close();
-
-            BufferedReader readerErr = new BufferedReader(new InputStreamReader(exec.getErrorStream(), "UTF-8"));
-            StringBuilder error = new StringBuilder();
-            while ((readChars = readerErr.read(buffer)) != -1) {
-                error.append(String.copyValueOf(buffer, 0, readChars));
-            }
-            readerErr.close();
 
             int errorCode = exec.waitFor();
+            errorDrainer.join();
             if (errorCode != 0) {
                 System.err.println("Process exited with return code " + errorCode + " and output:");
-                System.err.println(error);
-                return null;
+                System.err.println(errorDrainer.getOutput());
+                return false;
             }
-
-            return output.toString();
-        } catch (IOException | InterruptedException e) {
+            return true;
+        } catch (IOException e) {
             e.printStackTrace();
-            return null;
+            return false;
+        } catch (InterruptedException e) {
+            // The result is no longer needed, e.g. a page requested ahead was cancelled.
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            if (exec != null) {
+                exec.destroy();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes of output read by the last {@link #exec(String, Consumer)} call.
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Reads a process error stream until it ends, keeping the beginning of it for error reporting.
+     */
+    @SuppressWarnings({"PMD.DoNotUseThreads", "PMD.AvoidStringBufferField"})
+    private static class ErrorStreamDrainer extends Thread {
+        @Nonnull
+        private final InputStream errorStream;
+        @Nonnull
+        private final StringBuilder output = new StringBuilder();
+
+        ErrorStreamDrainer(@Nonnull InputStream errorStream) {
+            super("ssh-stderr");
+            this.errorStream = errorStream;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            char[] buffer = new char[1024];
+            try (Reader readerErr = new InputStreamReader(errorStream, StandardCharsets.UTF_8)) {
+                int readChars = readerErr.read(buffer);
+                while (readChars != -1) {
+                    synchronized (output) {
+                        int keptChars = Math.min(readChars, MAX_ERROR_OUTPUT_CHARS - output.length());
+                        output.append(buffer, 0, keptChars);
+                    }
+                    readChars = readerErr.read(buffer);
+                }
+            } catch (IOException e) {
+                // The stream is closed when the process is destroyed; nothing more to read.
+            }
+        }
+
+        @Nonnull
+        String getOutput() {
+            synchronized (output) {
+                return output.toString();
+            }
         }
     }
 }
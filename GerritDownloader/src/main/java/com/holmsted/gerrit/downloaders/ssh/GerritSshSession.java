@@ -0,0 +1,183 @@
+package com.holmsted.gerrit.downloaders.ssh;
+
+import com.google.common.base.Strings;
+import com.holmsted.gerrit.GerritServer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * A long-lived SSH connection to a Gerrit server, shared by all the commands run against it.
+ * <p>
+ * Without a session, every Gerrit command (and every page of a query) pays for a full TCP and
+ * SSH handshake. The session starts an OpenSSH ControlMaster process once, and all
+ * commands created through {@link #createCommandLine(String)} are multiplexed over its
+ * control socket. If the master cannot be started, e.g. because the ssh client does not
+ * support multiplexing, commands fall back to opening their own connections.
+ * <p>
+ * The ssh executable can be replaced, which allows testing against a fake ssh command.
+ */
+public class GerritSshSession implements Closeable {
+
+    public static final String DEFAULT_SSH_EXECUTABLE = "ssh";
+
+    private static final int MASTER_START_TIMEOUT_SECS = 60;
+
+    @Nonnull
+    private final GerritServer gerritServer;
+    @Nonnull
+    private final String sshExecutable;
+    private final boolean multiplexingEnabled;
+
+    @Nullable
+    private File controlDir;
+    @Nullable
+    private File controlPath;
+
+    public GerritSshSession(@Nonnull GerritServer gerritServer) {
+        this(gerritServer, DEFAULT_SSH_EXECUTABLE, true);
+    }
+
+    public GerritSshSession(@Nonnull GerritServer gerritServer,
+                            @Nonnull String sshExecutable,
+                            boolean multiplexingEnabled) {
+        this.gerritServer = gerritServer;
+        this.sshExecutable = sshExecutable;
+        this.multiplexingEnabled = multiplexingEnabled;
+    }
+
+    @Nonnull
+    public GerritServer getGerritServer() {
+        return gerritServer;
+    }
+
+    /**
+     * Starts the master connection. Returns whether commands will be multiplexed over it.
+     */
+    public boolean open() {
+        if (!multiplexingEnabled || isMultiplexed()) {
+            return isMultiplexed();
+        }
+
+        try {
+            controlDir = Files.createTempDirectory("gerritstats-ssh").toFile();
+            File socket = new File(controlDir, "master");
+
+            List<String> command = createBaseCommandLine();
+            command.add("-M");
+            command.add("-N");
+            command.add("-f");
+            command.add("-o");
+            command.add("ControlPath=" + socket.getAbsolutePath());
+            command.add("-o");
+            command.add("ControlPersist=yes");
+            command.add(gerritServer.getServerName());
+
+            Process process = new ProcessBuilder(command)
+                    .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            if (process.waitFor(MASTER_START_TIMEOUT_SECS, TimeUnit.SECONDS) && process.exitValue() == 0) {
+                controlPath = socket;
+            } else {
+                process.destroy();
+                System.err.println("Could not start a shared SSH connection; each command will connect separately.");
+                deleteControlDir();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            deleteControlDir();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            deleteControlDir();
+        }
+        return isMultiplexed();
+    }
+
+    public boolean isMultiplexed() {
+        return controlPath != null;
+    }
+
+    /**
+     * Returns the ssh command line that runs the given Gerrit command on the server.
+     */
+    @Nonnull
+    public List<String> createCommandLine(@Nonnull String gerritCommand) {
+        List<String> command = createBaseCommandLine();
+        if (controlPath != null) {
+            command.add("-o");
+            command.add("ControlMaster=no");
+            command.add("-o");
+            command.add("ControlPath=" + controlPath.getAbsolutePath());
+        }
+        command.add(gerritServer.getServerName());
+        command.add("gerrit");
+        command.add(gerritCommand);
+        return command;
+    }
+
+    /**
+     * Stops the master connection, if one was started.
+     */
+    @Override
+    public void close() {
+        if (controlPath != null) {
+            List<String> command = createBaseCommandLine();
+            command.add("-o");
+            command.add("ControlPath=" + controlPath.getAbsolutePath());
+            command.add("-O");
+            command.add("exit");
+            command.add(gerritServer.getServerName());
+            try {
+                Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+                process.getInputStream().close();
+                process.waitFor(MASTER_START_TIMEOUT_SECS, TimeUnit.SECONDS);
+            } catch (IOException e) {
+                e.printStackTrace();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            controlPath = null;
+        }
+        deleteControlDir();
+    }
+
+    @Nonnull
+    private List<String> createBaseCommandLine() {
+        List<String> command = new ArrayList<>();
+        command.add(sshExecutable);
+        command.add("-p");
+        command.add(String.valueOf(gerritServer.getPort()));
+        String privateKey = gerritServer.getPrivateKey();
+        if (!Strings.isNullOrEmpty(privateKey)) {
+            command.add("-i");
+            command.add(privateKey);
+        }
+        return command;
+    }
+
+    private void deleteControlDir() {
+        if (controlDir != null) {
+            File[] files = controlDir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (!file.delete()) {
+                        file.deleteOnExit();
+                    }
+                }
+            }
+            if (!controlDir.delete()) {
+                controlDir.deleteOnExit();
+            }
+            controlDir = null;
+        }
+    }
+}
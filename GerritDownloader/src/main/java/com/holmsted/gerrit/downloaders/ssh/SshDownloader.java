@@ -2,23 +2,47 @@ package com.holmsted.gerrit.downloaders.ssh;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
-import com.holmsted.gerrit.GerritServer;
 import com.holmsted.gerrit.GerritVersion;
 import com.holmsted.gerrit.downloaders.AbstractGerritStatsDownloader;
-import com.holmsted.json.JsonUtils;
+import com.holmsted.gerrit.downloaders.ChangeTracker;
+import com.holmsted.gerrit.downloaders.DateWindowPlanner;
+import com.holmsted.gerrit.downloaders.DownloadMetrics;
+import com.holmsted.gerrit.downloaders.PipelinedPageReader;
+import com.holmsted.gerrit.downloaders.RequestGovernor;
 
+import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 public class SshDownloader extends AbstractGerritStatsDownloader {
 
     public static final int NO_COMMIT_LIMIT = -1;
 
+    private static final String OFFSET_KEY = "offset";
+    private static final String STATUS_KEY = "status";
+    private static final String RESUME_SORTKEY_KEY = "resumeSortkey";
+    private static final String ROWS_KEY = "rows";
+    private static final String WINDOWS_KEY = "windows";
+    private static final String WINDOW_KEY = "window";
+    private static final String BOUNDARY_KEY = "boundary";
+
+    @Nonnull
+    private final GerritSshSession session;
     @Nonnull
     private final GerritVersion gerritVersion;
 
@@ -28,16 +52,11 @@ public class SshDownloader extends AbstractGerritStatsDownloader {
         final boolean moreChanges;
         final String resumeSortkey;
 
-        static QueryMetadata fromOutputString(String output) {
-            JSONObject lastLineData = JsonUtils.readJsonString(output);
-            if (lastLineData.get("rowCount") != null) {
-                return new QueryMetadata(lastLineData);
-            } else {
-                return null;
-            }
+        static boolean isQueryMetadata(@Nonnull JSONObject row) {
+            return "stats".equals(row.optString("type"));
         }
 
-        private QueryMetadata(JSONObject metadata) {
+        QueryMetadata(@Nonnull JSONObject metadata) {
             moreChanges = metadata.optBoolean("moreChanges");
             rowCount = metadata.optInt("rowCount");
             runtimeMsec = metadata.optInt("runTimeMilliseconds");
@@ -45,62 +64,170 @@ public class SshDownloader extends AbstractGerritStatsDownloader {
         }
     }
 
-    static class GerritOutput {
-        private final List<JSONObject> output = new ArrayList<>();
-        private final QueryMetadata metadata;
+    /**
+     * Thrown when the server answers a query with an error row, e.g. as the query is malformed.
+     * The query would fail the same way again, so it is not retried.
+     */
+    static class QueryErrorException extends RequestGovernor.PermanentFailureException {
+        private static final long serialVersionUID = 1L;
+
+        QueryErrorException(@Nonnull String queryCommand, @Nonnull String serverMessage) {
+            super(String.format("Query failed: %s: %s", queryCommand.trim(), serverMessage));
+        }
+    }
 
+    /**
+     * Parses the output of a query one line at a time. Each change is passed on as soon as
+     * its line has been read, and the trailing stats row is kept as the query metadata.
+     * An error row is kept as the error message of the query; no changes are passed on after it.
+     */
+    static class GerritOutput implements Consumer<String> {
+        @Nonnull
+        private final Consumer<JSONObject> changeConsumer;
         @Nonnull
         private final GerritVersion gerritVersion;
 
-        public GerritOutput(@Nonnull String output, @Nonnull GerritVersion gerritVersion) {
-            List<String> strings = Arrays.asList(output.split("\n"));
+        private QueryMetadata metadata;
+        private String errorMessage;
+        private int changeCount;
 
-            String lastLine = strings.get(strings.size() - 1);
-            this.metadata = Preconditions.checkNotNull(QueryMetadata.fromOutputString(lastLine));
+        public GerritOutput(@Nonnull Consumer<JSONObject> changeConsumer, @Nonnull GerritVersion gerritVersion) {
+            this.changeConsumer = changeConsumer;
+            this.gerritVersion = gerritVersion;
+        }
 
-            for (int i = 0; i < strings.size() - 1; ++i) {
-                this.output.add(new JSONObject(strings.get(i)));
+        @Override
+        public void accept(@Nonnull String line) {
+            if (line.isEmpty() || errorMessage != null) {
+                return;
+            }
+            JSONObject row = new JSONObject(line);
+            if ("error".equals(row.optString("type"))) {
+                errorMessage = row.optString("message", "unknown error");
+            } else if (QueryMetadata.isQueryMetadata(row)) {
+                metadata = new QueryMetadata(row);
+            } else {
+                ++changeCount;
+                changeConsumer.accept(row);
             }
-            this.gerritVersion = gerritVersion;
+        }
+
+        /**
+         * Returns the number of changes read so far, which is available even if the query failed.
+         */
+        public int getChangeCount() {
+            return changeCount;
+        }
+
+        /**
+         * Returns the message of the error row the server answered with, or null if there was none.
+         */
+        @Nullable
+        public String getErrorMessage() {
+            return errorMessage;
+        }
+
+        /**
+         * Returns whether the output ended in the stats row, i.e. was read completely.
+         */
+        public boolean isComplete() {
+            return metadata != null;
+        }
+
+        /**
+         * Returns the time the server spent on the query, or -1 if the output did not include it.
+         */
+        public int getServerRunTime() {
+            return metadata != null ? metadata.runtimeMsec : -1;
         }
 
         public boolean hasMoreChanges() {
             if (gerritVersion.isAtLeast(2, 9)) {
-                return metadata.moreChanges;
+                return getMetadata().moreChanges;
             } else {
-                return !Strings.nullToEmpty(metadata.resumeSortkey).isEmpty();
+                return !Strings.nullToEmpty(getMetadata().resumeSortkey).isEmpty();
             }
         }
 
         public String getResumeSortkey() {
-            return metadata.resumeSortkey;
+            return getMetadata().resumeSortkey;
         }
 
         public int getRowCount() {
-            return metadata.rowCount;
+            return getMetadata().rowCount;
+        }
+
+        @Nonnull
+        private QueryMetadata getMetadata() {
+            return Preconditions.checkNotNull(metadata, "The query output did not end in a stats row");
+        }
+    }
+
+    /**
+     * Passes on the changes of a query that may be run more than once, as it is retried after failing
+     * partway. The changes are passed on as soon as they are read, so a retry returns the changes
+     * an earlier attempt already passed on again; as many changes as were passed on are skipped
+     * at the start of each attempt.
+     * <p>
+     * A retry runs the same command, so it reads the same page. Should the changes on it have moved
+     * between the attempts, e.g. as a change was updated, a change may be passed on twice or not at all,
+     * the same way as when the changes move between the pages of a query.
+     */
+    static class RetriedQueryConsumer implements Consumer<JSONObject> {
+        @Nonnull
+        private final Consumer<JSONObject> consumer;
+        private int passedChangeCount;
+        private int attemptChangeCount;
+
+        RetriedQueryConsumer(@Nonnull Consumer<JSONObject> consumer) {
+            this.consumer = consumer;
         }
 
-        public List<JSONObject> getOutput() {
-            return output;
+        /**
+         * Starts reading the changes of the query from the beginning.
+         */
+        public void startAttempt() {
+            attemptChangeCount = 0;
+        }
+
+        @Override
+        public void accept(@Nonnull JSONObject change) {
+            ++attemptChangeCount;
+            if (attemptChangeCount > passedChangeCount) {
+                ++passedChangeCount;
+                consumer.accept(change);
+            }
         }
     }
 
     abstract static class DataReader {
         private int overallCommitLimit;
+        private long deadline = NO_DEADLINE;
+        private boolean timedOut;
+        private int pagesInFlight = 1;
         protected String gerritQuery;
 
-        private GerritServer gerritServer;
+        private GerritSshSession session;
         private GerritVersion gerritVersion;
-
+        private DownloadMetrics metrics;
+        private RequestGovernor governor;
+        private String projectName;
+        private JSONObject resumePosition;
         @Nonnull
-        public abstract List<JSONObject> readUntilLimit();
+        private CheckpointListener checkpointListener = position -> { };
 
-        public void setGerritServer(@Nonnull GerritServer gerritServer) {
-            this.gerritServer = gerritServer;
+        /**
+         * Reads data until the limit is reached or no further data is available, passing each page
+         * to the consumer as soon as it arrives.
+         */
+        public abstract void readUntilLimit(@Nonnull Consumer<JSONObject> consumer);
+
+        public void setSshSession(@Nonnull GerritSshSession session) {
+            this.session = session;
         }
 
-        public GerritServer getGerritServer() {
-            return gerritServer;
+        public GerritSshSession getSshSession() {
+            return session;
         }
 
         public void setOverallCommitLimit(int overallCommitLimit) {
@@ -111,12 +238,130 @@ public class SshDownloader extends AbstractGerritStatsDownloader {
             return overallCommitLimit;
         }
 
+        public void setDeadline(long deadline) {
+            this.deadline = deadline;
+        }
+
+        public long getDeadline() {
+            return deadline;
+        }
+
+        public boolean hasTimedOut() {
+            return timedOut;
+        }
+
+        protected void setTimedOut(boolean timedOut) {
+            this.timedOut = timedOut;
+        }
+
+        public void setPagesInFlight(int pagesInFlight) {
+            this.pagesInFlight = pagesInFlight;
+        }
+
+        public int getPagesInFlight() {
+            return pagesInFlight;
+        }
+
+        /**
+         * Returns whether another page may be requested after rowCount rows have been read,
+         * given the commit limit and the deadline.
+         */
+        protected boolean canReadMore(int rowCount) {
+            if (!isWithinLimit(rowCount)) {
+                return false;
+            }
+            if (deadline != NO_DEADLINE && System.currentTimeMillis() >= deadline) {
+                timedOut = true;
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Returns whether rowCount rows are still fewer than the commit limit.
+         */
+        protected boolean isWithinLimit(int rowCount) {
+            return overallCommitLimit == NO_COMMIT_LIMIT || rowCount < overallCommitLimit;
+        }
+
         public abstract void setGerritQuery(String projectNameList, String afterDate, String beforeDate);
 
+        public void setResumePosition(@Nullable JSONObject resumePosition) {
+            this.resumePosition = resumePosition;
+        }
+
+        @Nullable
+        public JSONObject getResumePosition() {
+            return resumePosition;
+        }
+
+        public void setCheckpointListener(@Nonnull CheckpointListener checkpointListener) {
+            this.checkpointListener = checkpointListener;
+        }
+
+        @Nonnull
+        public CheckpointListener getCheckpointListener() {
+            return checkpointListener;
+        }
+
         public String getGerritQuery() {
             return gerritQuery;
         }
 
+        public void setMetrics(@Nonnull DownloadMetrics metrics, @Nonnull String projectName) {
+            this.metrics = metrics;
+            this.projectName = projectName;
+        }
+
+        public void setGovernor(@Nonnull RequestGovernor governor) {
+            this.governor = governor;
+        }
+
+        /**
+         * Runs a query command through the governor, passing the changes it returns to the consumer
+         * as they are read, and records the figures of the request. A failed query is run again
+         * from the start, unless the server answered it with an error row, and the changes already
+         * passed on are skipped; see {@link RetriedQueryConsumer}. If all attempts fail,
+         * an UncheckedIOException carrying the reason is thrown.
+         */
+        @Nonnull
+        protected GerritOutput runQuery(@Nonnull String queryCommand, @Nonnull Consumer<JSONObject> consumer) {
+            DownloadMetrics.Request request = metrics.start(projectName, "ssh", queryCommand);
+            RetriedQueryConsumer retriedQueryConsumer = new RetriedQueryConsumer(consumer);
+            boolean succeeded = false;
+            try {
+                GerritOutput gerritOutput = governor.execute(request, () -> {
+                    retriedQueryConsumer.startAttempt();
+                    return runQueryOnce(queryCommand, retriedQueryConsumer, request);
+                });
+                succeeded = true;
+                return gerritOutput;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                metrics.finish(request, succeeded);
+            }
+        }
+
+        @Nonnull
+        private GerritOutput runQueryOnce(@Nonnull String queryCommand,
+                                          @Nonnull Consumer<JSONObject> consumer,
+                                          @Nonnull DownloadMetrics.Request request) throws IOException {
+            GerritSshCommand sshCommand = new GerritSshCommand(getSshSession());
+            GerritOutput gerritOutput = new GerritOutput(consumer, getGerritVersion());
+            boolean succeeded = sshCommand.exec(queryCommand, gerritOutput);
+            request.addBytes(sshCommand.getBytesRead());
+            if (!succeeded || !gerritOutput.isComplete() || gerritOutput.getErrorMessage() != null) {
+                if (gerritOutput.getErrorMessage() != null) {
+                    throw new QueryErrorException(queryCommand, gerritOutput.getErrorMessage());
+                }
+                throw new IOException("Query failed: " + queryCommand);
+            }
+            request.setRowCount(gerritOutput.getChangeCount());
+            request.setServerTime(gerritOutput.getServerRunTime());
+            return gerritOutput;
+        }
+
         public void setGerritVersion(@Nonnull GerritVersion gerritVersion) {
             this.gerritVersion = gerritVersion;
         }
@@ -135,24 +380,57 @@ public class SshDownloader extends AbstractGerritStatsDownloader {
      */
     static class LegacyDataReader extends DataReader {
 
-        private String resumeSortkey;
-
-        private int rowCount;
-
-        @Nonnull
+        private static final String[] STATUS_QUERIES = {"status:merged", "status:open", "status:abandoned"};
+
+        /**
+         * Runs the status queries concurrently, each with its own resume sortkey. To keep the output the same
+         * as when reading the queries one after another, the changes of each query are handed over to
+         * this thread, which passes them on one query at a time.
+         * <p>
+         * The commit limit applies to the rows of all the queries together, and is checked between pages,
+         * so the output may end one page past it, as before. It is enforced by this thread: once the rows
+         * passed on reach the limit at the end of a page, nothing more is passed on and the queries still
+         * running are stopped. A query does not know how many rows the queries before it return, so it
+         * stops by itself only once its own rows reach the limit; the pages it read past the point
+         * the output ended at are dropped.
+         * <p>
+         * The position reported at each checkpoint is the status query being passed on, with the resume
+         * sortkey of its next page, and the number of rows passed on so far. Resuming skips the status
+         * queries before it.
+         */
         @Override
-        public List<JSONObject> readUntilLimit() {
-            rowCount = 0;
-
-            List<JSONObject> items = new ArrayList<>();
-
-            String[] statusQueries = {"status:merged", "status:open", "status:abandoned"};
+        public void readUntilLimit(@Nonnull Consumer<JSONObject> consumer) {
+            JSONObject resumePosition = getResumePosition();
+            int firstStatus = resumePosition != null ? resumePosition.optInt(STATUS_KEY) : 0;
+            int resumedRowCount = resumePosition != null ? resumePosition.optInt(ROWS_KEY) : 0;
+            AtomicInteger passedRowCount = new AtomicInteger(resumedRowCount);
+            ExecutorService executor = Executors.newFixedThreadPool(STATUS_QUERIES.length);
+            try {
+                List<ChangeQueue> queues = new ArrayList<>();
+                List<Future<?>> futures = new ArrayList<>();
+                for (int status = firstStatus; status < STATUS_QUERIES.length; ++status) {
+                    String resumeSortkey = status == firstStatus && resumePosition != null
+                            ? resumePosition.optString(RESUME_SORTKEY_KEY, null) : null;
+                    StatusQueryReader reader = new StatusQueryReader(status, resumeSortkey, resumedRowCount);
+                    ChangeQueue queue = new ChangeQueue();
+                    queues.add(queue);
+                    futures.add(executor.submit(() -> reader.readUntilLimit(queue)));
+                }
 
-            for (String statusQuery : statusQueries) {
-                items.addAll(readOutputWithStatusQueryUntilLimit(statusQuery));
+                for (int i = 0; i < queues.size() && isWithinLimit(passedRowCount.get()); ++i) {
+                    boolean reachedLimit = queues.get(i).passChangesTo(change -> {
+                        passedRowCount.incrementAndGet();
+                        consumer.accept(change);
+                    }, position -> getCheckpointListener().onCheckpoint(position.put(ROWS_KEY, passedRowCount.get())),
+                            () -> !isWithinLimit(passedRowCount.get()));
+                    if (reachedLimit) {
+                        break;
+                    }
+                    waitForCompletion(futures.get(i));
+                }
+            } finally {
+                executor.shutdownNow();
             }
-
-            return items;
         }
 
         @Override
@@ -166,87 +444,160 @@ public class SshDownloader extends AbstractGerritStatsDownloader {
             this.gerritQuery = String.format("project:^%s", projectNameList);
         }
 
-        private List<JSONObject> readOutputWithStatusQueryUntilLimit(@Nonnull String statusQuery) {
-            List<JSONObject> items = new ArrayList<>();
+        /**
+         * Reads the pages of one status query, using its own resume sortkey, until the rows read before
+         * the download was resumed and its own rows reach the commit limit. A checkpoint is queued
+         * after each page; once the query has no more changes, it points at the next status query.
+         */
+        private class StatusQueryReader {
+            private final int statusIndex;
+
+            private String resumeSortkey;
+            private int rowCount;
+
+            StatusQueryReader(int statusIndex, @Nullable String resumeSortkey, int resumedRowCount) {
+                this.statusIndex = statusIndex;
+                this.resumeSortkey = resumeSortkey;
+                this.rowCount = resumedRowCount;
+            }
 
-            boolean hasMoreChanges = true;
-            while (hasMoreChanges
-                    && (rowCount < getOverallCommitLimit() || getOverallCommitLimit() == NO_COMMIT_LIMIT)) {
-                GerritOutput gerritOutput = readOutputWithStatusQuery(statusQuery);
-                items.addAll(gerritOutput.getOutput());
+            void readUntilLimit(@Nonnull ChangeQueue queue) {
+                try {
+                    boolean hasMoreChanges = true;
+                    while (hasMoreChanges && canReadMore(rowCount)) {
+                        GerritOutput gerritOutput = readOutputWithStatusQuery(queue);
+
+                        resumeSortkey = gerritOutput.getResumeSortkey();
+                        hasMoreChanges = gerritOutput.hasMoreChanges();
+                        rowCount += gerritOutput.getRowCount();
+                        queue.checkpoint(hasMoreChanges
+                                ? new JSONObject().put(STATUS_KEY, statusIndex).put(RESUME_SORTKEY_KEY, resumeSortkey)
+                                : new JSONObject().put(STATUS_KEY, statusIndex + 1));
+                    }
+                } finally {
+                    queue.close();
+                }
+            }
 
-                resumeSortkey = gerritOutput.getResumeSortkey();
-                hasMoreChanges = gerritOutput.hasMoreChanges();
-                rowCount += gerritOutput.getRowCount();
+            private GerritOutput readOutputWithStatusQuery(@Nonnull Consumer<JSONObject> consumer) {
+                String gerritQuery = getGerritQuery();
+                String resumeSortkeyArg = !Strings.nullToEmpty(resumeSortkey).isEmpty()
+                        ?  "resume_sortkey:" + resumeSortkey : "";
+
+                return runQuery(String.format("query %s %s "
+                        + "--format=JSON "
+                        + "--all-approvals "
+                        + "--comments "
+                        + "%s ",
+                        gerritQuery,
+                        STATUS_QUERIES[statusIndex],
+                        resumeSortkeyArg
+                ), consumer);
             }
+        }
+    }
 
-            return items;
+    /**
+     * Drops the changes that two adjacent date windows both return. The windows are passed on newest first,
+     * and the changes of each window newest first, so these are the last changes of one window and
+     * the first ones of the next, all updated in the same second. Only the keys of the changes updated
+     * in the oldest second passed on so far are therefore kept.
+     */
+    static class WindowBoundaryFilter {
+        private static final String SECOND_KEY = "second";
+        private static final String KEYS_KEY = "keys";
+
+        @Nonnull
+        private final Set<String> boundaryKeys = new HashSet<>();
+        private long boundarySecond = Long.MAX_VALUE;
+
+        /**
+         * Returns whether the change is passed on, i.e. was not passed on already.
+         */
+        boolean accept(@Nonnull JSONObject change) {
+            long lastUpdated = change.optLong("lastUpdated");
+            if (lastUpdated > boundarySecond) {
+                return true;
+            }
+            if (lastUpdated < boundarySecond) {
+                boundarySecond = lastUpdated;
+                boundaryKeys.clear();
+            }
+            return boundaryKeys.add(ChangeTracker.getChangeKey(change));
         }
 
-        private GerritOutput readOutputWithStatusQuery(String statusQuery) {
-            String gerritQuery = getGerritQuery();
-            GerritSshCommand sshCommand = new GerritSshCommand(getGerritServer());
-            String resumeSortkeyArg = !Strings.nullToEmpty(resumeSortkey).isEmpty()
-                    ?  "resume_sortkey:" + resumeSortkey : "";
-
-            String output = sshCommand.exec(String.format("query %s %s "
-                    + "--format=JSON "
-                    + "--all-approvals "
-                    + "--comments "
-                    + "%s ",
-                    gerritQuery,
-                    statusQuery,
-                    resumeSortkeyArg
-            ));
-
-            return new GerritOutput(Strings.nullToEmpty(output), getGerritVersion());
+        /**
+         * Returns the filter as json, to be stored in a download checkpoint.
+         */
+        @Nonnull
+        JSONObject toJson() {
+            return new JSONObject()
+                    .put(SECOND_KEY, boundarySecond)
+                    .put(KEYS_KEY, new JSONArray(boundaryKeys));
+        }
+
+        @Nonnull
+        static WindowBoundaryFilter fromJson(@Nullable JSONObject json) {
+            WindowBoundaryFilter filter = new WindowBoundaryFilter();
+            if (json != null) {
+                filter.boundarySecond = json.optLong(SECOND_KEY, Long.MAX_VALUE);
+                JSONArray keys = json.optJSONArray(KEYS_KEY);
+                for (int i = 0; keys != null && i < keys.length(); ++i) {
+                    filter.boundaryKeys.add(keys.getString(i));
+                }
+            }
+            return filter;
         }
     }
 
     /**
      * Reads data from Gerrit versions 2.9 and higher.
+     * <p>
+     * As the --start offsets of the pages are predictable, several pages are requested at once;
+     * see {@link PipelinedPageReader}. The position reported at each checkpoint is the offset of the next page.
      */
     static class DefaultDataReader extends DataReader {
-        private int startOffset;
 
-        public void setStartOffset(int startOffset) {
-            this.startOffset = startOffset;
-        }
-
-        public GerritOutput readData() {
+        public GerritOutput readData(int startOffset, @Nonnull Consumer<JSONObject> consumer) {
             String gerritQuery = getGerritQuery();
-            GerritSshCommand sshCommand = new GerritSshCommand(getGerritServer());
-
-            String output = sshCommand.exec(String.format("query %s "
+            return runQuery(String.format("query %s "
                             + "--format=JSON "
                             + "--all-approvals "
                             + "--comments "
                             + "--all-reviewers "
-                            + createStartOffsetArg(),
+                            + createStartOffsetArg(startOffset),
                     gerritQuery
-                    ));
-
-            return new GerritOutput(Strings.nullToEmpty(output), getGerritVersion());
+                    ), consumer);
         }
 
-        @Nonnull
         @Override
-        public List<JSONObject> readUntilLimit() {
-            List<JSONObject> items = new ArrayList<>();
-            boolean hasMoreChanges = true;
-            int rowCount = 0;
-
-            while (hasMoreChanges
-                    && (rowCount < getOverallCommitLimit() || getOverallCommitLimit() == NO_COMMIT_LIMIT)) {
-                GerritOutput gerritOutput = readData();
-                items.addAll(gerritOutput.getOutput());
-
-                hasMoreChanges = gerritOutput.hasMoreChanges();
-                rowCount += gerritOutput.getRowCount();
-                setStartOffset(startOffset + gerritOutput.getRowCount());
+        public void readUntilLimit(@Nonnull Consumer<JSONObject> consumer) {
+            PipelinedPageReader reader = new PipelinedPageReader(
+                    this::readPage, getPagesInFlight(), getOverallCommitLimit(), getDeadline());
+            JSONObject resumePosition = getResumePosition();
+            if (resumePosition != null) {
+                reader.setStartOffset(resumePosition.optInt(OFFSET_KEY));
             }
+            reader.setPageListener(nextOffset ->
+                    getCheckpointListener().onCheckpoint(new JSONObject().put(OFFSET_KEY, nextOffset)));
+            reader.read(consumer);
+            setTimedOut(reader.hasTimedOut());
+        }
 
-            return items;
+        /**
+         * Returns whether the query matches more than changeCount changes, by asking for
+         * a single change past that offset.
+         */
+        public boolean hasMoreChangesThan(int changeCount) {
+            GerritOutput gerritOutput = runQuery(String.format("query %s limit:1 --format=JSON %s",
+                    getGerritQuery(), createStartOffsetArg(changeCount)), change -> { });
+            return gerritOutput.getRowCount() > 0;
+        }
+
+        @Nonnull
+        private PipelinedPageReader.Page readPage(int startOffset, @Nonnull Consumer<JSONObject> consumer) {
+            GerritOutput gerritOutput = readData(startOffset, consumer);
+            return new PipelinedPageReader.Page(gerritOutput.getChangeCount(), gerritOutput.hasMoreChanges());
         }
 
         @Override
@@ -264,21 +615,22 @@ public class SshDownloader extends AbstractGerritStatsDownloader {
         }
 
 
-        private String createStartOffsetArg() {
+        private static String createStartOffsetArg(int startOffset) {
             return startOffset != 0 ? "--start " + startOffset + " " : "";
         }
     }
 
-    public SshDownloader(@Nonnull GerritServer gerritServer, @Nonnull GerritVersion gerritVersion) {
-        super(gerritServer);
+    public SshDownloader(@Nonnull GerritSshSession session, @Nonnull GerritVersion gerritVersion) {
+        super(session.getGerritServer());
+        this.session = session;
         this.gerritVersion = gerritVersion;
     }
 
     /**
      * Reads the data in json format from gerrit.
      */
-    @Nonnull
-    public List<JSONObject> readData() {
+    @Override
+    public void readData(@Nonnull Consumer<JSONObject> consumer) {
         if (getOverallCommitLimit() != NO_COMMIT_LIMIT) {
             System.out.println(String.format("Reading data from %s for last %d commits",
                     getGerritServer(), getOverallCommitLimit()));
@@ -286,23 +638,133 @@ public class SshDownloader extends AbstractGerritStatsDownloader {
             System.out.println("Reading all commit data from " + getGerritServer());
         }
 
-        DataReader reader = createDataReader();
-        return reader.readUntilLimit();
+        if (getShardSize() != NO_SHARDING && getOverallCommitLimit() == NO_COMMIT_LIMIT
+                && gerritVersion.isAtLeast(2, 9)) {
+            readDateWindows(consumer);
+        } else {
+            DataReader reader = createDataReader(getAfterDate(), getBeforeDate());
+            reader.setResumePosition(getResumePosition());
+            reader.setCheckpointListener(getCheckpointListener());
+            reader.readUntilLimit(consumer);
+            setTimedOut(reader.hasTimedOut());
+        }
+    }
+
+    /**
+     * Splits the query into date windows of at most the shard size, and reads as many windows at once
+     * as there are windows in flight, each with its own paged query. The changes are passed on one window at a time,
+     * newest window first, so that the output is the same as when reading the whole query at once,
+     * except for the changes updated exactly at a window boundary, which both windows return
+     * and which are passed on only once; see {@link WindowBoundaryFilter}.
+     * <p>
+     * The position reported at each checkpoint holds the windows, the window being passed on, the offset
+     * of its next page and the state of the boundary filter. Resuming reads the same windows again,
+     * skipping those already passed on.
+     */
+    private void readDateWindows(@Nonnull Consumer<JSONObject> consumer) {
+        JSONObject resumePosition = getResumePosition();
+        JSONArray storedWindows = resumePosition != null ? resumePosition.optJSONArray(WINDOWS_KEY) : null;
+        List<DateWindowPlanner.DateWindow> windows = new ArrayList<>();
+        int firstWindow = 0;
+        if (storedWindows != null) {
+            for (int i = 0; i < storedWindows.length(); ++i) {
+                windows.add(DateWindowPlanner.DateWindow.fromJson(storedWindows.getJSONObject(i)));
+            }
+            firstWindow = resumePosition.optInt(WINDOW_KEY);
+        } else {
+            DateWindowPlanner planner = new DateWindowPlanner((afterDate, beforeDate, changeCount) -> {
+                DefaultDataReader probe = (DefaultDataReader) createDataReader(afterDate, beforeDate);
+                return probe.hasMoreChangesThan(changeCount);
+            }, getShardSize());
+            windows = planner.plan(getAfterDate(), getBeforeDate());
+        }
+        if (windows.size() > 1) {
+            System.out.println(String.format("Reading %s in %d date windows", getProjectName(), windows.size()));
+        }
+        JSONArray windowArray = new JSONArray();
+        windows.forEach(window -> windowArray.put(window.toJson()));
+
+        int threadCount = Math.max(1, Math.min(getWindowsInFlight(), windows.size() - firstWindow));
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<DataReader> readers = new ArrayList<>();
+            List<ChangeQueue> queues = new ArrayList<>();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = firstWindow; i < windows.size(); ++i) {
+                DateWindowPlanner.DateWindow window = windows.get(i);
+                DataReader reader = createDataReader(window.getAfterDate(), window.getBeforeDate());
+                reader.setPagesInFlight(1);
+                ChangeQueue queue = new ChangeQueue();
+                if (i == firstWindow) {
+                    reader.setResumePosition(resumePosition);
+                }
+                reader.setCheckpointListener(queue::checkpoint);
+                readers.add(reader);
+                queues.add(queue);
+                futures.add(executor.submit(() -> {
+                    try {
+                        reader.readUntilLimit(queue);
+                    } finally {
+                        queue.close();
+                    }
+                }));
+            }
+
+            WindowBoundaryFilter boundaryFilter = WindowBoundaryFilter.fromJson(
+                    resumePosition != null ? resumePosition.optJSONObject(BOUNDARY_KEY) : null);
+            for (int i = 0; i < queues.size(); ++i) {
+                int windowIndex = firstWindow + i;
+                queues.get(i).passChangesTo(change -> {
+                    if (boundaryFilter.accept(change)) {
+                        consumer.accept(change);
+                    }
+                }, position -> getCheckpointListener().onCheckpoint(position
+                        .put(WINDOWS_KEY, windowArray)
+                        .put(WINDOW_KEY, windowIndex)
+                        .put(BOUNDARY_KEY, boundaryFilter.toJson())));
+                waitForCompletion(futures.get(i));
+                if (readers.get(i).hasTimedOut()) {
+                    setTimedOut(true);
+                } else {
+                    getCheckpointListener().onCheckpoint(new JSONObject()
+                            .put(WINDOWS_KEY, windowArray)
+                            .put(WINDOW_KEY, windowIndex + 1)
+                            .put(BOUNDARY_KEY, boundaryFilter.toJson()));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
     }
 
     @Nonnull
-    private DataReader createDataReader() {
+    private DataReader createDataReader(@Nullable String afterDate, @Nullable String beforeDate) {
         DataReader reader;
         if (gerritVersion.isAtLeast(2, 9)) {
             reader = new DefaultDataReader();
         } else {
             reader = new LegacyDataReader();
         }
-        reader.setGerritServer(getGerritServer());
+        reader.setSshSession(session);
         reader.setOverallCommitLimit(getOverallCommitLimit());
-        reader.setGerritQuery(getProjectName(), getAfterDate(), getBeforeDate());
+        reader.setDeadline(getDeadline());
+        reader.setPagesInFlight(getPagesInFlight());
+        reader.setGerritQuery(getProjectName(), afterDate, beforeDate);
         reader.setGerritVersion(gerritVersion);
+        reader.setMetrics(getMetrics(), getProjectName());
+        reader.setGovernor(getGovernor());
 
         return reader;
     }
+
+    private static void waitForCompletion(@Nonnull Future<?> future) {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Reading a query failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reading a query", e);
+        }
+    }
 }
@@ -1,6 +1,5 @@
 package com.holmsted.gerrit.downloaders.ssh;
 
-import com.holmsted.gerrit.GerritServer;
 import com.holmsted.gerrit.downloaders.ProjectLister;
 
 import java.util.List;
@@ -12,12 +11,16 @@ import javax.annotation.Nonnull;
  */
 public class SshProjectLister extends ProjectLister {
 
-    public SshProjectLister(@Nonnull GerritServer gerritServer) {
-        super(gerritServer);
+    @Nonnull
+    private final GerritSshSession session;
+
+    public SshProjectLister(@Nonnull GerritSshSession session) {
+        super(session.getGerritServer());
+        this.session = session;
     }
 
     @Nonnull
     public List<String> getProjectListing() {
-        return GerritSsh.listProjects(getGerritServer());
+        return GerritSsh.listProjects(session);
     }
 }
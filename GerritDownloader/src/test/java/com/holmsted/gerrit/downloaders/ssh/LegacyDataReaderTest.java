@@ -0,0 +1,103 @@
+package com.holmsted.gerrit.downloaders.ssh;
+
+import com.holmsted.gerrit.GerritVersion;
+import com.holmsted.gerrit.downloaders.ssh.SshDownloader.GerritOutput;
+import com.holmsted.gerrit.downloaders.ssh.SshDownloader.LegacyDataReader;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+
+import static org.junit.Assert.assertEquals;
+
+public class LegacyDataReaderTest {
+
+    private static final int CHANGES_PER_STATUS = 25;
+    private static final int PAGE_SIZE = 10;
+    private static final String[] STATUSES = {"merged", "open", "abandoned"};
+
+    /**
+     * Answers the status queries like a pre-2.9 server would, without ssh: each status has
+     * the same number of changes, returned a page at a time, and the stats row of each page but
+     * the last carries the resume sortkey of the next page. Change numbers start from 1000 times
+     * the index of the status, counting up.
+     */
+    private static class StubLegacyDataReader extends LegacyDataReader {
+        private static final Pattern STATUS_PATTERN = Pattern.compile("status:(\\w+)");
+        private static final Pattern RESUME_SORTKEY_PATTERN = Pattern.compile("resume_sortkey:(\\d+)");
+
+        StubLegacyDataReader(int commitLimit) {
+            setOverallCommitLimit(commitLimit);
+            setGerritVersion(GerritVersion.fromString("2.8"));
+            setGerritQuery("project", null, null);
+        }
+
+        @Nonnull
+        @Override
+        protected GerritOutput runQuery(@Nonnull String queryCommand, @Nonnull Consumer<JSONObject> consumer) {
+            Matcher statusMatcher = STATUS_PATTERN.matcher(queryCommand);
+            if (!statusMatcher.find()) {
+                throw new IllegalArgumentException("No status in query " + queryCommand);
+            }
+            int statusIndex = Arrays.asList(STATUSES).indexOf(statusMatcher.group(1));
+            Matcher resumeSortkeyMatcher = RESUME_SORTKEY_PATTERN.matcher(queryCommand);
+            int first = resumeSortkeyMatcher.find() ? Integer.parseInt(resumeSortkeyMatcher.group(1)) : 0;
+            int end = Math.min(first + PAGE_SIZE, CHANGES_PER_STATUS);
+
+            GerritOutput gerritOutput = new GerritOutput(consumer, GerritVersion.fromString("2.8"));
+            for (int i = first; i < end; ++i) {
+                gerritOutput.accept(new JSONObject().put("number", statusIndex * 1000 + i).toString());
+            }
+            gerritOutput.accept(new JSONObject()
+                    .put("type", "stats")
+                    .put("rowCount", end - first)
+                    .put("resumeSortKey", end < CHANGES_PER_STATUS ? String.valueOf(end) : "")
+                    .toString());
+            return gerritOutput;
+        }
+    }
+
+    @Test
+    public void readsAllStatusesInOrderWithoutLimit() {
+        List<Integer> changes = read(SshDownloader.NO_COMMIT_LIMIT);
+        assertEquals(STATUSES.length * CHANGES_PER_STATUS, changes.size());
+        assertEquals(expectedChanges(changes.size()), changes);
+    }
+
+    @Test
+    public void stopsAtTheEndOfThePageThatReachesTheLimit() {
+        assertEquals(expectedChanges(20), read(15));
+        assertEquals(expectedChanges(25), read(25));
+        assertEquals(expectedChanges(35), read(30));
+        assertEquals(expectedChanges(60), read(55));
+    }
+
+    @Nonnull
+    private static List<Integer> read(int commitLimit) {
+        List<Integer> changes = new ArrayList<>();
+        new StubLegacyDataReader(commitLimit).readUntilLimit(change -> changes.add(change.getInt("number")));
+        return changes;
+    }
+
+    /**
+     * Returns the first count changes that reading the status queries one after another would return.
+     */
+    @Nonnull
+    private static List<Integer> expectedChanges(int count) {
+        List<Integer> changes = new ArrayList<>();
+        for (int statusIndex = 0; statusIndex < STATUSES.length; ++statusIndex) {
+            for (int i = 0; i < CHANGES_PER_STATUS && changes.size() < count; ++i) {
+                changes.add(statusIndex * 1000 + i);
+            }
+        }
+        return changes;
+    }
+}
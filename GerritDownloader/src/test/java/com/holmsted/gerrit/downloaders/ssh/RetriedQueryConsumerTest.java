@@ -0,0 +1,35 @@
+package com.holmsted.gerrit.downloaders.ssh;
+
+import com.holmsted.gerrit.downloaders.ssh.SshDownloader.RetriedQueryConsumer;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class RetriedQueryConsumerTest {
+
+    @Test
+    public void passesOnEachChangeOnceOverFailedAttempts() {
+        List<Integer> changes = new ArrayList<>();
+        RetriedQueryConsumer consumer = new RetriedQueryConsumer(change -> changes.add(change.getInt("number")));
+
+        // the first attempt fails after two changes, the second one after a single change
+        readAttempt(consumer, 2);
+        readAttempt(consumer, 1);
+        readAttempt(consumer, 5);
+
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), changes);
+    }
+
+    private static void readAttempt(RetriedQueryConsumer consumer, int changeCount) {
+        consumer.startAttempt();
+        for (int i = 0; i < changeCount; ++i) {
+            consumer.accept(new JSONObject().put("number", i));
+        }
+    }
+}
@@ -0,0 +1,381 @@
+package com.holmsted.gerrit.downloaders.rest;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * A stand-in for a Gerrit server's REST API, serving generated changes from memory.
+ * It allows running and benchmarking the REST downloader without access to a real server:
+ * <pre>
+ * ./gradlew :GerritDownloader:runLocalRestServer --args='--port 8080'
+ * ./gerrit_downloader.sh --server http://localhost:8080 --output-dir out/
+ * </pre>
+ * Only the endpoints and query operators used by the downloader are supported:
+ * project:{name}, after:{date} and before:{date} queries, with the n and S paging parameters.
+ * The latency option adds a fixed delay to each request, to simulate a remote server.
+ */
+@SuppressWarnings({"PMD.SystemPrintln", "PMD.ExcessiveImports"})
+public final class LocalGerritRestServer {
+
+    private static final String VERSION = "2.14.2";
+    private static final long FIRST_CHANGE_TIMESTAMP = 1400000000;
+    private static final int CHANGE_INTERVAL_SECS = 3600;
+    private static final int UPDATE_DELAY_SECS = 600;
+    private static final int PROJECT_NUMBER_OFFSET = 1000000;
+    private static final int USER_COUNT = 7;
+
+    private static final DateTimeFormatter TIMESTAMP_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.000000000", Locale.US).withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter QUERY_DATE_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd[ HH:mm:ss]", Locale.US);
+    private static final Pattern PROJECT_PATTERN = Pattern.compile("project:\\{?\\^?([^} ]+)\\}?");
+    private static final Pattern AFTER_PATTERN = Pattern.compile("after:\\{([^}]+)\\}");
+    private static final Pattern BEFORE_PATTERN = Pattern.compile("before:\\{([^}]+)\\}");
+    private static final Pattern COMMENTS_PATH_PATTERN = Pattern.compile(".*/changes/(\\d+)/comments/?");
+
+    private static final String MESSAGE = "message";
+    private static final String CREATED = "created";
+    private static final String EMAIL = "email";
+
+    @Nonnull
+    private final Options options;
+    @Nonnull
+    private final List<String> projects = new ArrayList<>();
+
+    static class Options {
+        @Parameter(names = {"--port"}, description = "The port to listen on.")
+        private int port = 8080; // NOPMD
+
+        @Parameter(names = {"--projects"}, description = "Comma-separated list of the served projects.")
+        private String projects = "alpha,beta,gamma"; // NOPMD
+
+        @Parameter(names = {"--changes"}, description = "The number of changes in each project.")
+        private int changeCount = 1000; // NOPMD
+
+        @Parameter(names = {"--query-limit"}, description = "The highest number of changes returned per page.")
+        private int queryLimit = 500; // NOPMD
+
+        @Parameter(names = {"--latency"}, description = "A delay, in msec, added to each request.")
+        private int latencyMsec;
+
+        @Parameter(names = {"--threads"}, description = "The number of request handler threads.")
+        private int threadCount = 16; // NOPMD
+    }
+
+    private LocalGerritRestServer(@Nonnull Options options) {
+        this.options = options;
+        for (String project : options.projects.split(",")) {
+            projects.add(project.trim());
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Options options = new Options();
+        JCommander jCommander = new JCommander(options);
+        try {
+            jCommander.parse(args);
+        } catch (ParameterException e) {
+            System.err.println(e.getMessage());
+            jCommander.usage();
+            System.exit(1);
+        }
+        new LocalGerritRestServer(options).start();
+    }
+
+    private void start() throws IOException {
+        // Without TCP_NODELAY, each response on a kept-alive connection is delayed by the
+        // interaction of Nagle's algorithm and delayed ACKs, as headers and body are written separately.
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        HttpServer server = HttpServer.create(new InetSocketAddress(options.port), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(Executors.newFixedThreadPool(Math.max(1, options.threadCount)));
+        server.start();
+        System.out.println(String.format("Serving %d projects with %d changes each at http://localhost:%d",
+                projects.size(), options.changeCount, options.port));
+    }
+
+    private void handle(@Nonnull HttpExchange exchange) throws IOException {
+        try {
+            if (options.latencyMsec > 0) {
+                TimeUnit.MILLISECONDS.sleep(options.latencyMsec);
+            }
+            String path = exchange.getRequestURI().getPath();
+            Object response = createResponse(path, parseQueryParameters(exchange.getRequestURI().getRawQuery()));
+            if (response == null) {
+                sendResponse(exchange, HttpURLConnection.HTTP_NOT_FOUND, "Not found: " + path, false);
+            } else {
+                sendResponse(exchange, HttpURLConnection.HTTP_OK, ")]}'\n" + toJsonString(response), true);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            sendResponse(exchange, HttpURLConnection.HTTP_BAD_REQUEST, String.valueOf(e.getMessage()), false);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    @Nullable
+    private Object createResponse(@Nonnull String path, @Nonnull Map<String, String> parameters) {
+        String apiPath = path.startsWith("/a/") ? path.substring(2) : path;
+        if ("/config/server/version".equals(apiPath)) {
+            return VERSION;
+        } else if ("/projects/".equals(apiPath)) {
+            JSONObject result = new JSONObject();
+            for (String project : projects) {
+                result.put(project, new JSONObject().put("id", project));
+            }
+            return result;
+        } else if ("/changes/".equals(apiPath)) {
+            return queryChanges(parameters);
+        }
+
+        Matcher commentsMatcher = COMMENTS_PATH_PATTERN.matcher(apiPath);
+        if (commentsMatcher.matches()) {
+            int changeNumber = Integer.parseInt(commentsMatcher.group(1));
+            return createInlineComments(changeNumber % PROJECT_NUMBER_OFFSET);
+        }
+        return null;
+    }
+
+    @Nonnull
+    private JSONArray queryChanges(@Nonnull Map<String, String> parameters) {
+        String query = parameters.getOrDefault("q", "");
+        Matcher projectMatcher = PROJECT_PATTERN.matcher(query);
+        int projectIndex = projectMatcher.find() ? projects.indexOf(projectMatcher.group(1)) : -1;
+        if (projectIndex == -1) {
+            return new JSONArray();
+        }
+
+        long after = parseQueryDate(AFTER_PATTERN.matcher(query), Long.MIN_VALUE);
+        long before = parseQueryDate(BEFORE_PATTERN.matcher(query), Long.MAX_VALUE);
+        List<Integer> matchingChanges = new ArrayList<>();
+        for (int change = options.changeCount; change > 0; --change) {
+            long updated = getUpdatedTimestamp(change);
+            if (updated >= after && updated <= before) {
+                matchingChanges.add(change);
+            }
+        }
+
+        int pageSize = Math.min(Integer.parseInt(parameters.getOrDefault("n", "0")), options.queryLimit);
+        if (pageSize <= 0) {
+            pageSize = options.queryLimit;
+        }
+        int start = Integer.parseInt(parameters.getOrDefault("S", "0"));
+        int end = Math.min(start + pageSize, matchingChanges.size());
+
+        JSONArray result = new JSONArray();
+        for (int i = start; i < end; ++i) {
+            JSONObject changeInfo = createChangeInfo(projectIndex, matchingChanges.get(i));
+            if (i == end - 1 && end < matchingChanges.size()) {
+                changeInfo.put("_more_changes", true);
+            }
+            result.put(changeInfo);
+        }
+        return result;
+    }
+
+    @Nonnull
+    private JSONObject createChangeInfo(int projectIndex, int change) {
+        String project = projects.get(projectIndex);
+        String branch = change % 3 != 0 ? "master" : "dev";
+        String changeId = String.format("I%040x", change);
+        long created = FIRST_CHANGE_TIMESTAMP + (long) change * CHANGE_INTERVAL_SECS;
+        String status = getStatus(change);
+        JSONObject owner = createAccount(change);
+        JSONObject reviewer = createAccount(change + 1);
+
+        JSONObject changeInfo = new JSONObject();
+        changeInfo.put("id", String.format("%s~%s~%s", project, branch, changeId));
+        changeInfo.put("project", project);
+        changeInfo.put("branch", branch);
+        changeInfo.put("change_id", changeId);
+        changeInfo.put("subject", "Change " + change);
+        changeInfo.put("status", status);
+        changeInfo.put(CREATED, formatTimestamp(created));
+        changeInfo.put("updated", formatTimestamp(getUpdatedTimestamp(change)));
+        changeInfo.put("insertions", change % 50);
+        changeInfo.put("deletions", change % 13);
+        changeInfo.put("_number", projectIndex * PROJECT_NUMBER_OFFSET + change);
+        changeInfo.put("owner", owner);
+        if ("MERGED".equals(status)) {
+            changeInfo.put("submitted", formatTimestamp(created + 500));
+            changeInfo.put("submitter", reviewer);
+        }
+
+        JSONObject vote = new JSONObject(reviewer.toString());
+        vote.put("value", 2);
+        vote.put("date", formatTimestamp(created + 100));
+        changeInfo.put("labels", new JSONObject()
+                .put("Code-Review", new JSONObject().put("all", new JSONArray().put(vote))));
+        changeInfo.put("reviewers", new JSONObject().put("REVIEWER", new JSONArray().put(reviewer)));
+
+        JSONObject message = new JSONObject();
+        message.put("id", "m" + change);
+        message.put("author", reviewer);
+        message.put("date", formatTimestamp(created + 60));
+        message.put(MESSAGE, "Patch Set 1: Code-Review+2");
+        message.put("_revision_number", 1);
+        changeInfo.put("messages", new JSONArray().put(message));
+
+        JSONObject revisions = new JSONObject();
+        int patchSetCount = change % 3 + 1;
+        for (int patchSet = 1; patchSet <= patchSetCount; ++patchSet) {
+            JSONObject commit = new JSONObject();
+            commit.put("parents", new JSONArray().put(new JSONObject()
+                    .put("commit", String.format("%040x", change * 10 + patchSet - 1))));
+            commit.put("author", new JSONObject()
+                    .put("name", owner.getString("name"))
+                    .put(EMAIL, owner.getString(EMAIL))
+                    .put("date", formatTimestamp(created)));
+            commit.put("subject", "Change " + change);
+            commit.put(MESSAGE, "Change " + change + "\n\nChange-Id: " + changeId + "\n");
+
+            JSONObject revisionInfo = new JSONObject();
+            revisionInfo.put("kind", "REWORK");
+            revisionInfo.put("_number", patchSet);
+            revisionInfo.put(CREATED, formatTimestamp(created + patchSet));
+            revisionInfo.put("uploader", owner);
+            revisionInfo.put("ref", String.format("refs/changes/%02d/%d/%d", change % 100, change, patchSet));
+            revisionInfo.put("commit", commit);
+
+            String revision = String.format("%040x", change * 10 + patchSet);
+            revisions.put(revision, revisionInfo);
+            if (patchSet == patchSetCount) {
+                changeInfo.put("current_revision", revision);
+            }
+        }
+        changeInfo.put("revisions", revisions);
+        return changeInfo;
+    }
+
+    @Nonnull
+    private static JSONObject createInlineComments(int change) {
+        JSONObject result = new JSONObject();
+        for (int comment = 0; comment < change % 4; ++comment) {
+            JSONObject commentInfo = new JSONObject();
+            commentInfo.put("id", String.format("c%d_%d", change, comment));
+            commentInfo.put("patch_set", 1);
+            commentInfo.put("line", comment * 3);
+            commentInfo.put("author", createAccount(change + comment));
+            commentInfo.put("updated", formatTimestamp(FIRST_CHANGE_TIMESTAMP + (long) change * CHANGE_INTERVAL_SECS));
+            commentInfo.put(MESSAGE, String.format("comment %d on ps 1", comment));
+            result.put(String.format("src/file%d.c", comment), new JSONArray().put(commentInfo));
+        }
+        return result;
+    }
+
+    @Nonnull
+    private static JSONObject createAccount(int user) {
+        int userIndex = user % USER_COUNT;
+        JSONObject account = new JSONObject();
+        account.put("_account_id", 1000 + userIndex);
+        account.put("name", "User " + userIndex);
+        account.put(EMAIL, String.format("user%d@example.com", userIndex));
+        account.put("username", "user" + userIndex);
+        return account;
+    }
+
+    @Nonnull
+    private static String getStatus(int change) {
+        if (change % 5 == 0) {
+            return "NEW";
+        }
+        return change % 11 == 0 ? "ABANDONED" : "MERGED";
+    }
+
+    private static long getUpdatedTimestamp(int change) {
+        return FIRST_CHANGE_TIMESTAMP + (long) change * CHANGE_INTERVAL_SECS + UPDATE_DELAY_SECS;
+    }
+
+    @Nonnull
+    private static String formatTimestamp(long epochSecs) {
+        return TIMESTAMP_FORMAT.format(Instant.ofEpochSecond(epochSecs));
+    }
+
+    private static long parseQueryDate(@Nonnull Matcher matcher, long defaultValue) {
+        if (!matcher.find()) {
+            return defaultValue;
+        }
+        String date = matcher.group(1).length() == "yyyy-MM-dd".length()
+                ? matcher.group(1) + " 00:00:00" : matcher.group(1);
+        return LocalDateTime.parse(date, QUERY_DATE_FORMAT).toEpochSecond(ZoneOffset.UTC);
+    }
+
+    @Nonnull
+    private static Map<String, String> parseQueryParameters(@Nullable String rawQuery) {
+        Map<String, String> parameters = new HashMap<>();
+        if (rawQuery == null) {
+            return parameters;
+        }
+        try {
+            for (String parameter : rawQuery.split("&")) {
+                int separator = parameter.indexOf('=');
+                if (separator != -1) {
+                    parameters.put(URLDecoder.decode(parameter.substring(0, separator), "UTF-8"),
+                            URLDecoder.decode(parameter.substring(separator + 1), "UTF-8"));
+                }
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        return parameters;
+    }
+
+    @Nonnull
+    private static String toJsonString(@Nonnull Object response) {
+        return response instanceof String ? JSONObject.quote((String) response) : response.toString();
+    }
+
+    private static void sendResponse(@Nonnull HttpExchange exchange, int responseCode,
+                                     @Nonnull String body, boolean isJson) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (OutputStream gzipStream = new GZIPOutputStream(compressed)) {
+                gzipStream.write(bytes);
+            }
+            bytes = compressed.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.getResponseHeaders().set("Content-Type",
+                isJson ? "application/json; charset=UTF-8" : "text/plain; charset=UTF-8");
+        exchange.sendResponseHeaders(responseCode, bytes.length);
+        try (OutputStream responseBody = exchange.getResponseBody()) {
+            responseBody.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.holmsted.gerrit;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+import com.google.common.io.CountingOutputStream;
+import com.holmsted.gerrit.GerritStatParser.GerritData;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Measures the time and heap it takes {@link GerritStatParser} to parse a file written by GerritDownloader:
+ * <pre>
+ * ./gradlew :GerritStats:runParserBenchmark --args='--generate big.json --size-mb 1024'
+ * ./gradlew :GerritStats:runParserBenchmark --args='big.json'
+ * </pre>
+ * The file should be parsed in a JVM of its own, as the peak heap usage is that of the whole process.
+ * The generated files contain synthetic changes, shaped like the ones of a real server.
+ */
+@SuppressWarnings({"PMD.SystemPrintln", "PMD.DoNotCallGarbageCollectionExplicitly"})
+public final class ParserBenchmark {
+
+    private static final long FIRST_CHANGE_TIMESTAMP = 1400000000;
+    private static final int CHANGE_INTERVAL_SECS = 3600;
+    private static final int USER_COUNT = 50;
+    private static final int PATCH_SET_COUNT = 3;
+    private static final int COMMENTS_PER_PATCH_SET = 4;
+    private static final long BYTES_PER_MB = 1024 * 1024;
+
+    private static final String REVIEWER = "reviewer";
+    private static final String MESSAGE = "message";
+    private static final String CREATED_ON = "createdOn";
+    private static final String NUMBER = "number";
+
+    static class Options {
+        @Parameter(description = "The file to parse or generate.", required = true)
+        private List<String> files = new ArrayList<>(); // NOPMD
+
+        @Parameter(names = {"--generate"}, description = "Generates the file instead of parsing it.")
+        private boolean generate;
+
+        @Parameter(names = {"--size-mb"}, description = "The approximate size of the generated file, in megabytes.")
+        private int sizeMb = 1024; // NOPMD
+    }
+
+    private ParserBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Options options = new Options();
+        JCommander jCommander = new JCommander(options);
+        try {
+            jCommander.parse(args);
+        } catch (ParameterException e) {
+            System.err.println(e.getMessage());
+            jCommander.usage();
+            System.exit(1);
+        }
+
+        String filename = options.files.get(0);
+        if (options.generate) {
+            generateFile(filename, options.sizeMb * BYTES_PER_MB);
+        } else {
+            measureParser(filename);
+        }
+    }
+
+    private static void measureParser(@Nonnull String filename) throws IOException {
+        System.gc();
+        List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                heapPools.add(pool);
+            }
+        }
+
+        long startTime = System.nanoTime();
+        GerritData data = new GerritStatParser().parseFile(filename);
+        long elapsedMsec = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+
+        // the pools peak at different times, so their sum is an upper bound of the peak heap usage.
+        long peakHeapBytes = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            peakHeapBytes += pool.getPeakUsage().getUsed();
+        }
+        System.out.println(String.format(Locale.US, "%d commits in %.1f s, peak heap %d MB",
+                data.commits.size(), elapsedMsec / 1000.0, peakHeapBytes / BYTES_PER_MB));
+    }
+
+    private static void generateFile(@Nonnull String filename, long targetBytes) throws IOException {
+        int changeCount = 0;
+        try (CountingOutputStream counter = new CountingOutputStream(new FileOutputStream(filename));
+             Writer writer = new BufferedWriter(new OutputStreamWriter(counter, StandardCharsets.UTF_8))) {
+            writer.write("{\"gerritStatsVersion\":1,\"gerritVersion\":\"2.12.2\",\"commits\":[");
+            while (counter.getCount() < targetBytes) {
+                if (changeCount > 0) {
+                    writer.write(',');
+                }
+                createChange(++changeCount).write(writer);
+            }
+            writer.write("]}");
+        }
+        System.out.println(String.format("Wrote %d changes into %s", changeCount, filename));
+    }
+
+    @Nonnull
+    private static JSONObject createChange(int number) {
+        long createdOn = FIRST_CHANGE_TIMESTAMP + (long) number * CHANGE_INTERVAL_SECS;
+        JSONObject owner = createUser(number);
+        JSONObject reviewer = createUser(number + 1);
+
+        JSONArray patchSets = new JSONArray();
+        for (int i = 1; i <= PATCH_SET_COUNT; ++i) {
+            patchSets.put(createPatchSet(number, i, createdOn + i, owner, reviewer));
+        }
+
+        return new JSONObject()
+                .put("project", "benchmark")
+                .put("branch", number % 4 == 0 ? "dev" : "master")
+                .put("id", String.format("I%040x", number))
+                .put(NUMBER, number)
+                .put("subject", "Change " + number)
+                .put("owner", owner)
+                .put("url", "https://gerrit.example.com/" + number)
+                .put("commitMessage", "Change " + number + "\n\nChange-Id: " + String.format("I%040x", number))
+                .put(CREATED_ON, createdOn)
+                .put("lastUpdated", createdOn + CHANGE_INTERVAL_SECS / 2)
+                .put("open", false)
+                .put("status", "MERGED")
+                .put("allReviewers", new JSONArray().put(reviewer))
+                .put("comments", new JSONArray().put(new JSONObject()
+                        .put(REVIEWER, reviewer)
+                        .put(MESSAGE, "Patch Set " + PATCH_SET_COUNT + ": Code-Review+2")
+                        .put("timestamp", createdOn + CHANGE_INTERVAL_SECS / 4)))
+                .put("patchSets", patchSets);
+    }
+
+    @Nonnull
+    private static JSONObject createPatchSet(int changeNumber, int number, long createdOn,
+                                             @Nonnull JSONObject owner, @Nonnull JSONObject reviewer) {
+        JSONArray comments = new JSONArray();
+        for (int i = 0; i < COMMENTS_PER_PATCH_SET; ++i) {
+            comments.put(new JSONObject()
+                    .put("file", "src/file" + i + ".c")
+                    .put("line", i * 3)
+                    .put(REVIEWER, i % 2 == 0 ? reviewer : owner)
+                    .put(MESSAGE, "Comment " + i + " on patch set " + number));
+        }
+        String revision = String.format("%040x", changeNumber * PATCH_SET_COUNT + number);
+        return new JSONObject()
+                .put(NUMBER, number)
+                .put("revision", revision)
+                .put("parents", new JSONArray().put(String.format("%040x", changeNumber * PATCH_SET_COUNT)))
+                .put("ref", String.format("refs/changes/%02d/%d/%d", changeNumber % 100, changeNumber, number))
+                .put("uploader", owner)
+                .put("author", owner)
+                .put(CREATED_ON, createdOn)
+                .put("isDraft", false)
+                .put("kind", number == 1 ? "REWORK" : "TRIVIAL_REBASE")
+                .put("approvals", new JSONArray().put(new JSONObject()
+                        .put("type", "Code-Review")
+                        .put("description", "Code-Review")
+                        .put("value", number == PATCH_SET_COUNT ? "2" : "1")
+                        .put("grantedOn", createdOn + 100)
+                        .put("by", reviewer)))
+                .put("comments", comments)
+                .put("sizeInsertions", 10 + changeNumber % 90)
+                .put("sizeDeletions", -(changeNumber % 30));
+    }
+
+    @Nonnull
+    private static JSONObject createUser(int index) {
+        int user = index % USER_COUNT;
+        return new JSONObject()
+                .put("name", "User " + user)
+                .put("email", "user" + user + "@example.com")
+                .put("username", "user" + user);
+    }
+}
@@ -163,6 +163,14 @@ export default class GerritUserdata {
         return this.record.activeDayCount;
     }
 
+    /**
+     * Returns the number of events per day, week and month, in eventsPerDay, eventsPerWeek and eventsPerMonth.
+     * Each has the startDays of the active periods, in days since 1970-01-01, and their eventCounts.
+     */
+    getActivity() {
+        return this.record.activity;
+    }
+
     getPrintableName() {
         return getPrintableName(this.record.identity);
     }
@@ -9,13 +9,17 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
 import java.util.stream.Collectors;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 @SuppressWarnings("unused")
 public class CommandLineParser {
@@ -40,6 +44,18 @@ public class CommandLineParser {
     @Nonnull
     private final List<String> includedBranches = new ArrayList<>();
 
+    @Parameter(names = "--after-date",
+            description = "If specified, only commits created on or after this date will be included for analysis. "
+            + "Format should be in the form yyyy-mm-dd",
+            converter = DateConverter.class)
+    private Long afterDate;
+
+    @Parameter(names = "--before-date",
+            description = "If specified, only commits created before this date will be included for analysis. "
+            + "Format should be in the form yyyy-mm-dd",
+            converter = DateConverter.class)
+    private Long beforeDate;
+
     @Parameter(names = "--include",
             description = "If specified, only the comma-separated list of identities "
             + "will be included in generated statistics. If both --include and --exclude are "
@@ -47,6 +63,11 @@ public class CommandLineParser {
     @Nonnull
     private final List<String> includedEmails = new ArrayList<>();
 
+    @Parameter(names = "--threads",
+            description = "The number of files read and parsed concurrently. "
+            + "Defaults to the number of processors.")
+    private int threadCount = Runtime.getRuntime().availableProcessors(); // NOPMD
+
     @Parameter(names = {"-o", "--output-dir"},
             description = "The output will be generated into the given directory.")
     @Nonnull
@@ -69,6 +90,24 @@ public class CommandLineParser {
         }
     }
 
+    /**
+     * Converts a yyyy-mm-dd date into msec since the epoch, at the start of the day in the local timezone.
+     */
+    public static class DateConverter implements IStringConverter<Long> {
+        @Override
+        public Long convert(String value) {
+            try {
+                SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
+                dateFormat.setLenient(false);
+                return dateFormat.parse(value).getTime();
+            } catch (ParseException e) {
+                ParameterException exception = new ParameterException("Bad Date format " + value);
+                exception.initCause(e);
+                throw exception;
+            }
+        }
+    }
+
     public CommandLineParser() {
         ClassLoader loader = getClass().getClassLoader();
         URL url = loader.getResource("META-INF/MANIFEST.MF");
@@ -123,6 +162,20 @@ public class CommandLineParser {
         return includedBranches;
     }
 
+    @Nullable
+    public Long getAfterDate() {
+        return afterDate;
+    }
+
+    @Nullable
+    public Long getBeforeDate() {
+        return beforeDate;
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
     @Nonnull
     public String getOutputDir() {
         return outputDir;
@@ -2,22 +2,19 @@ package com.holmsted.gerrit;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
-import com.holmsted.gerrit.GerritStatParser.ParserContext;
-import com.holmsted.json.JsonUtils;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
-
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+@SuppressWarnings("PMD.TooManyFields")
 public class Commit {
-    private static final long SEC_TO_MSEC = 1000;
 
     public final String project;
     public final String branch;
@@ -36,6 +33,15 @@ public class Commit {
     public final ImmutableList<ChangeComment> comments;
     public final ImmutableList<PatchSet> patchSets;
 
+    /**
+     * The patch set of each inline comment, so that it need not be searched for.
+     */
+    @Nonnull
+    private final transient Map<PatchSetComment, PatchSet> patchSetsByComment;
+    @Nonnull
+    private final transient int[] patchSetCountsByKind = new int[PatchSetKind.values().length];
+    private final transient int firstPatchSetIndexWithNonAuthorReview;
+
     public enum PatchSetKind {
         REWORK,
         TRIVIAL_REBASE,
@@ -48,28 +54,36 @@ public class Commit {
         public final String email;
         public final String username;
 
+        @Nonnull
+        private final String identifier;
+
         public Identity(@Nullable String name, @Nullable String email, @Nullable String username) {
+            this(name, email, username, createIdentifier(email, username));
+        }
+
+        Identity(@Nullable String name,
+                 @Nullable String email,
+                 @Nullable String username,
+                 @Nonnull String identifier) {
             this.name = name;
             this.email = email;
             this.username = username;
-        }
-
-        public static Identity fromJson(JSONObject ownerJson) {
-            return new Identity(ownerJson.optString("name"),
-                    ownerJson.optString("email"),
-                    ownerJson.optString("username"));
+            this.identifier = identifier;
         }
 
         @Nonnull
-        static List<Identity> fromJsonArray(@Nullable JSONArray identitiesJson) {
-            List<Identity> result = new ArrayList<>();
-            if (identitiesJson != null) {
-                for (int i = 0; i < identitiesJson.length(); ++i) {
-                    JSONObject identityJson = identitiesJson.getJSONObject(i);
-                    result.add(Identity.fromJson(identityJson));
+        static String createIdentifier(@Nullable String email, @Nullable String username) {
+            String identifier = username;
+            if (Strings.isNullOrEmpty(identifier)) {
+                identifier = Strings.nullToEmpty(email).replace(".", "_");
+                int atMarkIndex = identifier.indexOf('@');
+                if (atMarkIndex != -1) {
+                    identifier = identifier.substring(0, atMarkIndex);
+                } else {
+                    identifier = "anonymous_coward";
                 }
             }
-            return result;
+            return identifier;
         }
 
         public String getName() {
@@ -84,27 +98,21 @@ public class Commit {
             return username;
         }
 
+        @Nonnull
         public String getIdentifier() {
-            String identifier = username;
-            if (Strings.isNullOrEmpty(identifier)) {
-                identifier = Strings.nullToEmpty(email).replace(".", "_");
-                int atMarkIndex = identifier.indexOf('@');
-                if (atMarkIndex != -1) {
-                    identifier = identifier.substring(0, atMarkIndex);
-                } else {
-                    identifier = "anonymous_coward";
-                }
-            }
             return identifier;
         }
 
         @Override
         public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
             if (!(other instanceof Identity)) {
                 return false;
             }
             Identity otherIdentity = (Identity) other;
-            return getIdentifier().equals(otherIdentity.getIdentifier());
+            return identifier.equals(otherIdentity.identifier);
         }
 
         public int compareTo(@Nonnull Identity other) {
@@ -119,7 +127,7 @@ public class Commit {
 
         @Override
         public int hashCode() {
-            return getIdentifier().hashCode();
+            return identifier.hashCode();
         }
 
         @Override
@@ -148,24 +156,6 @@ public class Commit {
             this.reviewer = reviewer;
             this.message = message;
         }
-
-        static ChangeComment fromJson(JSONObject commentJson) {
-            return new ChangeComment(
-                    commentJson.optLong("timestamp") * SEC_TO_MSEC,
-                    Identity.fromJson(commentJson.optJSONObject("reviewer")),
-                    commentJson.optString("message"));
-        }
-
-        static List<ChangeComment> fromJsonArray(@Nullable JSONArray comments) {
-            List<ChangeComment> result = new ArrayList<>();
-            if (comments != null) {
-                for (int i = 0; i < comments.length(); ++i) {
-                    JSONObject commentJson = comments.getJSONObject(i);
-                    result.add(ChangeComment.fromJson(commentJson));
-                }
-            }
-            return result;
-        }
     }
 
     public static class Approval {
@@ -189,27 +179,6 @@ public class Commit {
             this.grantedOnDate = grantedOnDate;
             this.grantedBy = grantedBy;
         }
-
-        @Nonnull
-        public static List<Approval> fromJson(@Nullable JSONArray approvals) {
-            List<Approval> result = new ArrayList<>();
-            if (approvals != null) {
-                for (int i = 0; i < approvals.length(); ++i) {
-                    result.add(Approval.fromJson(approvals.getJSONObject(i)));
-                }
-            }
-            return result;
-        }
-
-        public static Approval fromJson(JSONObject approvalJson) {
-            return new Approval(
-                    approvalJson.optString("type"),
-                    approvalJson.optString("description"),
-                    approvalJson.optInt("value"),
-                    approvalJson.optLong("grantedOn") * SEC_TO_MSEC,
-                    Identity.fromJson(approvalJson.getJSONObject("by"))
-            );
-        }
     }
 
     public static class PatchSetComment {
@@ -237,28 +206,6 @@ public class Commit {
             this.patchSetTimestamp = patchSetTimestamp;
         }
 
-        @Nonnull
-        public static PatchSetComment fromJson(JSONObject commentJson, long createdOnDate) {
-            return new PatchSetComment(
-                    commentJson.optString("file"),
-                    commentJson.optInt("line"),
-                    Identity.fromJson(commentJson.getJSONObject("reviewer")),
-                    commentJson.optString("message"),
-                    createdOnDate
-            );
-        }
-
-        @Nonnull
-        public static List<PatchSetComment> fromJson(@Nullable JSONArray comments, long createdOnDate) {
-            List<PatchSetComment> result = new ArrayList<>();
-            if (comments != null) {
-                for (int i = 0; i < comments.length(); ++i) {
-                    result.add(PatchSetComment.fromJson(comments.getJSONObject(i), createdOnDate));
-                }
-            }
-            return result;
-        }
-
         @Nullable
         public String getFile() {
             return file;
@@ -323,17 +270,6 @@ public class Commit {
             this.sizeDeletions = sizeDeletions;
         }
 
-        static List<PatchSet> fromJsonArray(@Nullable JSONArray patchSetsJson, @Nonnull ParserContext context) {
-            List<PatchSet> result = new ArrayList<>();
-            if (patchSetsJson != null) {
-                for (int i = 0; i < patchSetsJson.length(); ++i) {
-                    JSONObject patchSetJson = patchSetsJson.getJSONObject(i);
-                    result.add(PatchSet.fromJson(patchSetJson, context));
-                }
-            }
-            return result;
-        }
-
         public int getNumber() {
             return number;
         }
@@ -353,49 +289,6 @@ public class Commit {
         public boolean contains(PatchSetComment patchSetComment) {
             return comments.indexOf(patchSetComment) != -1;
         }
-
-        static PatchSet fromJson(@Nonnull JSONObject patchSetJson, @Nonnull ParserContext context) {
-            Identity uploader = Identity.fromJson(patchSetJson.optJSONObject("uploader"));
-
-            JSONObject authorJson = patchSetJson.optJSONObject("author");
-            Identity author;
-            if (authorJson != null) {
-                author = Identity.fromJson(authorJson);
-            } else {
-                author = uploader;
-            }
-
-            String kindString = patchSetJson.optString("kind");
-            PatchSetKind patchSetKind = PatchSetKind.REWORK;
-            try {
-                patchSetKind = PatchSetKind.valueOf(kindString);
-            } catch (IllegalArgumentException e) {
-                if (context.version.isAtLeast(2, 9)) {
-                    System.err.println("Unknown patch set kind '" + kindString + "'");
-                } else {
-                    // the 'kind' field does not exist before Gerrit 2.9 or so.
-                    patchSetKind = PatchSetKind.REWORK;
-                }
-            }
-
-            long createdOnDate = patchSetJson.optLong("createdOn") * SEC_TO_MSEC;
-
-            return new PatchSet(
-                    patchSetJson.optInt("number"),
-                    patchSetJson.optString("revision"),
-                    JsonUtils.readStringArray(patchSetJson.optJSONArray("parents")),
-                    patchSetJson.optString("ref"),
-                    uploader,
-                    createdOnDate,
-                    author,
-                    patchSetJson.optBoolean("isDraft"),
-                    patchSetKind,
-                    Approval.fromJson(patchSetJson.optJSONArray("approvals")),
-                    PatchSetComment.fromJson(patchSetJson.optJSONArray("comments"), createdOnDate),
-                    patchSetJson.optInt("sizeInsertions"),
-                    patchSetJson.optInt("sizeDeletions")
-            );
-        }
     }
 
     @SuppressWarnings("PMD")
@@ -429,62 +322,61 @@ public class Commit {
         this.reviewers = ImmutableList.copyOf(reviewers);
         this.comments = ImmutableList.copyOf(comments);
         this.patchSets = ImmutableList.copyOf(patchSets);
+
+        int commentCount = 0;
+        int firstReviewedIndex = -1;
+        for (int i = 0; i < this.patchSets.size(); ++i) {
+            PatchSet patchSet = this.patchSets.get(i);
+            ++patchSetCountsByKind[patchSet.kind.ordinal()];
+            commentCount += patchSet.comments.size();
+            if (firstReviewedIndex == -1 && hasNonAuthorComment(patchSet)) {
+                firstReviewedIndex = i;
+            }
+        }
+        this.firstPatchSetIndexWithNonAuthorReview = firstReviewedIndex;
+        this.patchSetsByComment = createPatchSetsByComment(this.patchSets, commentCount);
     }
 
-    static Commit fromJson(JSONObject commitJson, @Nonnull ParserContext context) {
-        List<Identity> reviewers = Identity.fromJsonArray(commitJson.optJSONArray("allReviewers"));
-        List<ChangeComment> changeComments = ChangeComment.fromJsonArray(commitJson.optJSONArray("comments"));
-        List<PatchSet> patchSets = PatchSet.fromJsonArray(commitJson.optJSONArray("patchSets"), context);
-
-        return new Commit(
-                commitJson.optString("project"),
-                commitJson.optString("branch"),
-                commitJson.optString("id"),
-                commitJson.optInt("number"),
-                commitJson.optString("subject"),
-                Identity.fromJson(commitJson.optJSONObject("owner")),
-                commitJson.optString("url"),
-                commitJson.optString("commitMessage"),
-                commitJson.optLong("createdOn") * SEC_TO_MSEC,
-                commitJson.optLong("lastUpdated") * SEC_TO_MSEC,
-                commitJson.optBoolean("open"),
-                commitJson.optString("status"),
-                reviewers,
-                changeComments,
-                patchSets
-        );
+    private boolean hasNonAuthorComment(@Nonnull PatchSet patchSet) {
+        for (PatchSetComment comment : patchSet.comments) {
+            if (!Objects.equals(owner, comment.reviewer)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     @Nonnull
-    public Commit.PatchSet getPatchSetForComment(@Nonnull PatchSetComment patchSetComment) {
+    private static Map<PatchSetComment, PatchSet> createPatchSetsByComment(@Nonnull List<PatchSet> patchSets,
+                                                                           int commentCount) {
+        if (commentCount == 0) {
+            return Collections.emptyMap();
+        }
+        // the comments do not override equals(), so they are looked up by identity, like in the patch set lists.
+        Map<PatchSetComment, PatchSet> patchSetsByComment = new IdentityHashMap<>(commentCount);
         for (PatchSet patchSet : patchSets) {
-            if (patchSet.contains(patchSetComment)) {
-                return patchSet;
+            for (PatchSetComment comment : patchSet.comments) {
+                patchSetsByComment.putIfAbsent(comment, patchSet);
             }
         }
-        throw new IllegalArgumentException("Attempted to query for a comment not in the patch set!");
+        return patchSetsByComment;
     }
 
-    public int getPatchSetCountForKind(@Nonnull PatchSetKind kind) {
-        int count = 0;
-        for (PatchSet patchSet : patchSets) {
-            if (patchSet.kind == kind) {
-                ++count;
-            }
+    @Nonnull
+    public Commit.PatchSet getPatchSetForComment(@Nonnull PatchSetComment patchSetComment) {
+        PatchSet patchSet = patchSetsByComment.get(patchSetComment);
+        if (patchSet == null) {
+            throw new IllegalArgumentException("Attempted to query for a comment not in the patch set!");
         }
-        return count;
+        return patchSet;
+    }
+
+    public int getPatchSetCountForKind(@Nonnull PatchSetKind kind) {
+        return patchSetCountsByKind[kind.ordinal()];
     }
 
     public int getFirstPatchSetIndexWithNonAuthorReview() {
-        for (int i = 0; i < patchSets.size(); ++i) {
-            PatchSet patchSet = patchSets.get(i);
-            for (PatchSetComment comment : patchSet.comments) {
-                if (!Objects.equals(owner, comment.reviewer)) {
-                    return i;
-                }
-            }
-        }
-        return -1;
+        return firstPatchSetIndexWithNonAuthorReview;
     }
 
     @Nullable
@@ -501,8 +393,4 @@ public class Commit {
     public Date getCreatedOnDate() {
         return new Date(createdOnDate);
     }
-
-    static boolean isCommit(@Nonnull JSONObject lineJson) {
-        return lineJson.opt("status") != null;
-    }
 }
@@ -0,0 +1,207 @@
+package com.holmsted.gerrit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Cuts the commits array of a file written by GerritDownloader into chunks of whole commits,
+ * without parsing the commits, so that the chunks can be parsed concurrently.
+ * <p>
+ * The text is only scanned for the brackets and braces outside of strings, minding escaped quotes,
+ * which is enough to tell where the elements of the array begin and end. Any syntax errors are left
+ * for the parser of the chunks to find.
+ * <p>
+ * The scanning is done on the UTF-8 bytes of the file, leaving the decoding to the parsers of the chunks,
+ * so that it is done concurrently too. The characters scanned for are all ASCII, and the bytes
+ * of multi-byte UTF-8 characters are never mistaken for them, as they are all above 0x7f.
+ */
+class CommitArraySplitter {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String COMMITS_KEY = "commits";
+
+    /**
+     * The depth of the elements of the commits array: inside the root object and the array.
+     */
+    private static final int ELEMENT_DEPTH = 2;
+
+    @Nonnull
+    private final InputStream inputStream;
+    @Nonnull
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+
+    private int depth;
+    private boolean inString;
+    private boolean escaped;
+    private boolean arrayEnded;
+
+    CommitArraySplitter(@Nonnull InputStream inputStream) {
+        this.inputStream = inputStream;
+    }
+
+    /**
+     * Reads the root object up to the start of its commits array, returning the text read, or null if
+     * the text is not a json object with a commits array. The returned text ends with the opening bracket
+     * of the array.
+     */
+    @Nullable
+    String readHeader() throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        StringBuilder lastString = new StringBuilder();
+        boolean isCommitsValueNext = false;
+
+        int c = read();
+        while (c != -1) {
+            header.write(c);
+            if (inString) {
+                if (escaped) {
+                    escaped = false;
+                } else if (c == '\\') {
+                    escaped = true;
+                } else if (c == '"') {
+                    inString = false;
+                }
+                if (inString) {
+                    // multi-byte characters end up as several chars, but they are never part of the commits key.
+                    lastString.append((char) c);
+                }
+            } else if (!isWhitespace(c)) {
+                if (isCommitsValueNext) {
+                    if (c != '[') {
+                        return null;
+                    }
+                    ++depth;
+                    return header.toString(StandardCharsets.UTF_8.name());
+                } else if (depth == 0 && c != '{') {
+                    return null;
+                }
+                switch (c) {
+                    case '"':
+                        inString = true;
+                        lastString.setLength(0);
+                        break;
+                    case '{':
+                    case '[':
+                        ++depth;
+                        break;
+                    case '}':
+                    case ']':
+                        --depth;
+                        if (depth == 0) {
+                            return null;
+                        }
+                        break;
+                    case ':':
+                        isCommitsValueNext = depth == 1 && COMMITS_KEY.contentEquals(lastString);
+                        break;
+                    default:
+                        break;
+                }
+            }
+            c = read();
+        }
+        return null;
+    }
+
+    /**
+     * Reads the next elements of the commits array, until they are at least minLength bytes long
+     * or the array ends. The elements are returned as the UTF-8 text of a json array of their own,
+     * or null if the array has no more elements. {@link #readHeader()} must have returned the header first.
+     */
+    @Nullable
+    byte[] readChunk(int minLength) throws IOException {
+        if (arrayEnded) {
+            return null;
+        }
+        ByteArrayOutputStream chunk = new ByteArrayOutputStream(minLength + minLength / 4);
+        chunk.write('[');
+        boolean hasElements = false;
+        while (true) {
+            if (position == limit && !fill()) {
+                throw new EOFException("The commits array is not terminated");
+            }
+            int start = position;
+            for (; position < limit; ++position) {
+                byte c = buffer[position];
+                if (inString) {
+                    if (escaped) {
+                        escaped = false;
+                    } else if (c == '\\') {
+                        escaped = true;
+                    } else if (c == '"') {
+                        inString = false;
+                    }
+                    continue;
+                }
+                switch (c) {
+                    case '"':
+                        inString = true;
+                        hasElements = true;
+                        break;
+                    case '{':
+                    case '[':
+                        ++depth;
+                        hasElements = true;
+                        break;
+                    case '}':
+                        --depth;
+                        break;
+                    case ']':
+                        if (depth == ELEMENT_DEPTH) {
+                            chunk.write(buffer, start, position - start);
+                            chunk.write(']');
+                            ++position;
+                            --depth;
+                            arrayEnded = true;
+                            return hasElements ? chunk.toByteArray() : null;
+                        }
+                        --depth;
+                        break;
+                    case ',':
+                        if (depth == ELEMENT_DEPTH && chunk.size() + position - start >= minLength) {
+                            chunk.write(buffer, start, position - start);
+                            chunk.write(']');
+                            ++position;
+                            return chunk.toByteArray();
+                        }
+                        break;
+                    default:
+                        if (!isWhitespace(c)) {
+                            hasElements = true;
+                        }
+                        break;
+                }
+            }
+            chunk.write(buffer, start, position - start);
+        }
+    }
+
+    private static boolean isWhitespace(int value) {
+        return value == ' ' || value == '\n' || value == '\r' || value == '\t';
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position++] & 0xff;
+    }
+
+    private boolean fill() throws IOException {
+        int count = inputStream.read(buffer, 0, buffer.length);
+        if (count <= 0) {
+            return false;
+        }
+        position = 0;
+        limit = count;
+        return true;
+    }
+}
@@ -1,7 +1,10 @@
 package com.holmsted.gerrit;
 
+import com.holmsted.gerrit.DownloadManifest.FileEntry;
+
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -16,6 +19,8 @@ public class CommitFilter {
     private final List<String> includedBranches = new ArrayList<>();
 
     private boolean includeEmptyEmails;
+    private long afterDate = Long.MIN_VALUE;
+    private long beforeDate = Long.MAX_VALUE;
 
     CommitFilter() {
     }
@@ -32,12 +37,22 @@ public class CommitFilter {
         this.includedBranches.addAll(includeBranches);
     }
 
+    /**
+     * Only includes the commits created on or after afterDate and before beforeDate, in msec since the epoch.
+     * A null date leaves that end of the range open.
+     */
+    public void setDateRange(@Nullable Long afterDate, @Nullable Long beforeDate) {
+        this.afterDate = afterDate != null ? afterDate : Long.MIN_VALUE;
+        this.beforeDate = beforeDate != null ? beforeDate : Long.MAX_VALUE;
+    }
+
     public void setIncludeEmptyEmails(boolean includeEmptyEmails) {
         this.includeEmptyEmails = includeEmptyEmails;
     }
 
     public boolean isIncluded(@Nonnull Commit commit) {
-        return includedBranches.isEmpty() || includedBranches.contains(commit.branch);
+        return (includedBranches.isEmpty() || includedBranches.contains(commit.branch))
+                && commit.createdOnDate >= afterDate && commit.createdOnDate < beforeDate;
     }
 
     public boolean isIncluded(@Nullable Commit.Identity identity) {
@@ -51,4 +66,15 @@ public class CommitFilter {
             }
         }
     }
+
+    /**
+     * Returns whether any of the commits of the file described by the manifest entry may be included.
+     */
+    public boolean mayIncludeAny(@Nonnull FileEntry entry) {
+        boolean hasIncludedBranch = includedBranches.isEmpty()
+                || entry.branches.stream().anyMatch(includedBranches::contains);
+        return hasIncludedBranch
+                && TimeUnit.SECONDS.toMillis(entry.maxCreatedOn) >= afterDate
+                && TimeUnit.SECONDS.toMillis(entry.minCreatedOn) < beforeDate;
+    }
 }
@@ -0,0 +1,476 @@
+package com.holmsted.gerrit;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.holmsted.gerrit.GerritStatParser.ParserContext;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Builds commits straight from a json token stream, without building a json tree of them first.
+ * This is the only parser of commits, used for both the current and the legacy file format.
+ * <p>
+ * The values are read leniently: a missing string is empty and a missing number zero, numbers given
+ * as strings, like approval values, are parsed, and values of an unexpected type are skipped.
+ * A missing identity, e.g. an approval without "by", reads as an identity with empty fields,
+ * just like an empty identity object, so that the processors never see a null identity.
+ * Fields may come in any order.
+ */
+class CommitReader {
+
+    private static final long SEC_TO_MSEC = 1000;
+
+    @Nonnull
+    private final JsonReader reader;
+    @Nonnull
+    private final ParserContext context;
+
+    @Nullable
+    private String rowType;
+
+    CommitReader(@Nonnull JsonReader reader, @Nonnull ParserContext context) {
+        this.reader = reader;
+        this.context = context;
+    }
+
+    /**
+     * Reads the commits of a json array, passing over the objects that are not commits.
+     */
+    void readCommits(@Nonnull List<Commit> commits) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+            reader.skipValue();
+            return;
+        }
+        reader.beginArray();
+        while (reader.hasNext()) {
+            Commit commit = readCommit();
+            if (commit != null) {
+                commits.add(commit);
+            }
+        }
+        reader.endArray();
+    }
+
+    /**
+     * Reads a json object, returning the commit it describes, or null if it is not a commit,
+     * i.e. has no status field. The type field of such an object is then available from {@link #getRowType()}.
+     */
+    @Nullable
+    @SuppressWarnings({"PMD.NcssMethodCount", "PMD.CyclomaticComplexity", "PMD.StdCyclomaticComplexity",
+            "PMD.ModifiedCyclomaticComplexity"})
+    Commit readCommit() throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return null;
+        }
+        rowType = null;
+        String project = "";
+        String branch = "";
+        String id = "";
+        int commitNumber = 0;
+        String subject = "";
+        Commit.Identity owner = null;
+        String url = "";
+        String commitMessage = "";
+        long createdOnDate = 0;
+        long lastUpdatedDate = 0;
+        boolean isOpen = false;
+        String status = null;
+        List<Commit.Identity> reviewers = new ArrayList<>();
+        List<Commit.ChangeComment> comments = new ArrayList<>();
+        List<Commit.PatchSet> patchSets = new ArrayList<>();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "project":
+                    project = readString();
+                    break;
+                case "branch":
+                    branch = readString();
+                    break;
+                case "id":
+                    id = readString();
+                    break;
+                case "number":
+                    commitNumber = readInt();
+                    break;
+                case "subject":
+                    subject = readString();
+                    break;
+                case "owner":
+                    owner = readIdentity();
+                    break;
+                case "url":
+                    url = readString();
+                    break;
+                case "commitMessage":
+                    commitMessage = readString();
+                    break;
+                case "createdOn":
+                    createdOnDate = readLong() * SEC_TO_MSEC;
+                    break;
+                case "lastUpdated":
+                    lastUpdatedDate = readLong() * SEC_TO_MSEC;
+                    break;
+                case "open":
+                    isOpen = readBoolean();
+                    break;
+                case "status":
+                    status = readString();
+                    break;
+                case "type":
+                    rowType = readString();
+                    break;
+                case "allReviewers":
+                    readArray(() -> reviewers.add(readIdentity()));
+                    break;
+                case "comments":
+                    readArray(() -> comments.add(readChangeComment()));
+                    break;
+                case "patchSets":
+                    readArray(() -> patchSets.add(readPatchSet()));
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        if (status == null) {
+            return null;
+        }
+        return new Commit(project, branch, id, commitNumber, subject, orMissing(owner), url, commitMessage,
+                createdOnDate, lastUpdatedDate, isOpen, status, reviewers, comments, patchSets);
+    }
+
+    /**
+     * Returns the type field of the last object read by {@link #readCommit()} if it was not a commit,
+     * e.g. "stats" for the stats row of a query, or null if it had none.
+     */
+    @Nullable
+    String getRowType() {
+        return rowType;
+    }
+
+    @Nonnull
+    private Commit.Identity readIdentity() throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return missingIdentity();
+        }
+        String name = "";
+        String email = "";
+        String username = "";
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "name":
+                    name = readString();
+                    break;
+                case "email":
+                    email = readString();
+                    break;
+                case "username":
+                    username = readString();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        return context.identityPool.get(name, email, username);
+    }
+
+    @Nonnull
+    private Commit.ChangeComment readChangeComment() throws IOException {
+        long timestamp = 0;
+        Commit.Identity reviewer = null;
+        String message = "";
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "timestamp":
+                    timestamp = readLong() * SEC_TO_MSEC;
+                    break;
+                case "reviewer":
+                    reviewer = readIdentity();
+                    break;
+                case "message":
+                    message = readString();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        return new Commit.ChangeComment(timestamp, orMissing(reviewer), message);
+    }
+
+    @Nonnull
+    private Commit.Approval readApproval() throws IOException {
+        String type = "";
+        String description = "";
+        int value = 0;
+        long grantedOnDate = 0;
+        Commit.Identity grantedBy = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "type":
+                    type = readString();
+                    break;
+                case "description":
+                    description = readString();
+                    break;
+                case "value":
+                    value = readInt();
+                    break;
+                case "grantedOn":
+                    grantedOnDate = readLong() * SEC_TO_MSEC;
+                    break;
+                case "by":
+                    grantedBy = readIdentity();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        return new Commit.Approval(type, description, value, grantedOnDate, orMissing(grantedBy));
+    }
+
+    /**
+     * An inline comment read before the creation date of its patch set is known.
+     */
+    private static class InlineComment {
+        String file = "";
+        int line;
+        Commit.Identity reviewer;
+        String message = "";
+    }
+
+    @Nonnull
+    private InlineComment readInlineComment() throws IOException {
+        InlineComment comment = new InlineComment();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "file":
+                    comment.file = readString();
+                    break;
+                case "line":
+                    comment.line = readInt();
+                    break;
+                case "reviewer":
+                    comment.reviewer = readIdentity();
+                    break;
+                case "message":
+                    comment.message = readString();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        return comment;
+    }
+
+    @Nonnull
+    @SuppressWarnings({"PMD.NcssMethodCount", "PMD.CyclomaticComplexity", "PMD.StdCyclomaticComplexity",
+            "PMD.ModifiedCyclomaticComplexity"})
+    private Commit.PatchSet readPatchSet() throws IOException {
+        int number = 0;
+        String revision = "";
+        List<String> parents = new ArrayList<>();
+        String ref = "";
+        Commit.Identity uploader = null;
+        Commit.Identity author = null;
+        long createdOnDate = 0;
+        boolean isDraft = false;
+        String kindString = "";
+        List<Commit.Approval> approvals = new ArrayList<>();
+        List<InlineComment> inlineComments = new ArrayList<>();
+        int sizeInsertions = 0;
+        int sizeDeletions = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "number":
+                    number = readInt();
+                    break;
+                case "revision":
+                    revision = readString();
+                    break;
+                case "parents":
+                    readArray(() -> parents.add(readString()));
+                    break;
+                case "ref":
+                    ref = readString();
+                    break;
+                case "uploader":
+                    uploader = readIdentity();
+                    break;
+                case "author":
+                    author = readIdentity();
+                    break;
+                case "createdOn":
+                    createdOnDate = readLong() * SEC_TO_MSEC;
+                    break;
+                case "isDraft":
+                    isDraft = readBoolean();
+                    break;
+                case "kind":
+                    kindString = readString();
+                    break;
+                case "approvals":
+                    readArray(() -> approvals.add(readApproval()));
+                    break;
+                case "comments":
+                    readArray(() -> inlineComments.add(readInlineComment()));
+                    break;
+                case "sizeInsertions":
+                    sizeInsertions = readInt();
+                    break;
+                case "sizeDeletions":
+                    sizeDeletions = readInt();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        List<Commit.PatchSetComment> comments = new ArrayList<>(inlineComments.size());
+        for (InlineComment comment : inlineComments) {
+            comments.add(new Commit.PatchSetComment(
+                    comment.file, comment.line, orMissing(comment.reviewer), comment.message, createdOnDate));
+        }
+
+        uploader = orMissing(uploader);
+        return new Commit.PatchSet(number, revision, parents, ref, uploader, createdOnDate,
+                author != null ? author : uploader, isDraft, parsePatchSetKind(kindString),
+                approvals, comments, sizeInsertions, sizeDeletions);
+    }
+
+    @Nonnull
+    private Commit.Identity missingIdentity() {
+        return context.identityPool.get("", "", "");
+    }
+
+    @Nonnull
+    private Commit.Identity orMissing(@Nullable Commit.Identity identity) {
+        return identity != null ? identity : missingIdentity();
+    }
+
+    @Nonnull
+    private Commit.PatchSetKind parsePatchSetKind(@Nonnull String kindString) {
+        try {
+            return Commit.PatchSetKind.valueOf(kindString);
+        } catch (IllegalArgumentException e) {
+            // the 'kind' field does not exist before Gerrit 2.9 or so.
+            if (context.version.isAtLeast(2, 9)) {
+                System.err.println("Unknown patch set kind '" + kindString + "'");
+            }
+            return Commit.PatchSetKind.REWORK;
+        }
+    }
+
+    private interface ElementReader {
+        void readElement() throws IOException;
+    }
+
+    /**
+     * Reads each element of a json array with the element reader, skipping any value that is not an array.
+     * Null elements are passed over.
+     */
+    private void readArray(@Nonnull ElementReader elementReader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+            reader.skipValue();
+            return;
+        }
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+            } else {
+                elementReader.readElement();
+            }
+        }
+        reader.endArray();
+    }
+
+    @Nonnull
+    private String readString() throws IOException {
+        switch (reader.peek()) {
+            case STRING:
+            case NUMBER:
+                return reader.nextString();
+            case BOOLEAN:
+                return Boolean.toString(reader.nextBoolean());
+            default:
+                reader.skipValue();
+                return "";
+        }
+    }
+
+    private long readLong() throws IOException {
+        JsonToken token = reader.peek();
+        if (token != JsonToken.NUMBER && token != JsonToken.STRING) {
+            reader.skipValue();
+            return 0;
+        }
+        String value = reader.nextString();
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return token == JsonToken.NUMBER ? (long) parseDouble(value) : 0;
+        }
+    }
+
+    private int readInt() throws IOException {
+        JsonToken token = reader.peek();
+        if (token != JsonToken.NUMBER && token != JsonToken.STRING) {
+            reader.skipValue();
+            return 0;
+        }
+        String value = reader.nextString();
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return token == JsonToken.NUMBER ? (int) parseDouble(value) : 0;
+        }
+    }
+
+    private static double parseDouble(@Nonnull String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private boolean readBoolean() throws IOException {
+        switch (reader.peek()) {
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case STRING:
+                return "true".equalsIgnoreCase(reader.nextString());
+            default:
+                reader.skipValue();
+                return false;
+        }
+    }
+}
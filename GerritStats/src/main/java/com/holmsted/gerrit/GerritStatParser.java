@@ -1,23 +1,58 @@
 package com.holmsted.gerrit;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
 
-import com.holmsted.json.JsonUtils;
+import com.holmsted.file.FileReader;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 public class GerritStatParser {
 
+    /**
+     * The approximate length of the chunks of text parsed at once, in bytes or characters.
+     */
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    private static final int CHUNKS_IN_FLIGHT_PER_THREAD = 2;
+
+    @Nonnull
+    private final IdentityPool identityPool;
+    /**
+     * The chunks that may be held in memory at once, shared by all the files the parser is parsing,
+     * so that parsing several files concurrently does not multiply them.
+     */
+    @Nonnull
+    private final Semaphore chunksInFlight =
+            new Semaphore(ForkJoinPool.commonPool().getParallelism() * CHUNKS_IN_FLIGHT_PER_THREAD);
+
     public static class ParserContext {
         final GerritVersion version;
+        final IdentityPool identityPool;
 
-        ParserContext(@Nonnull GerritVersion version) {
+        ParserContext(@Nonnull GerritVersion version, @Nonnull IdentityPool identityPool) {
             this.version = version;
+            this.identityPool = identityPool;
         }
     }
 
@@ -33,45 +68,223 @@ public class GerritStatParser {
     }
 
 
+    public GerritStatParser() {
+        this(new IdentityPool());
+    }
+
+    /**
+     * Creates a parser that takes the identities from the given pool, so that files parsed
+     * by parsers sharing the pool also share the identities.
+     */
+    public GerritStatParser(@Nonnull IdentityPool identityPool) {
+        this.identityPool = identityPool;
+    }
+
+    /**
+     * Parses a file written by GerritDownloader. The file is read as a stream, decompressing it
+     * on the fly if it is compressed, and cut into chunks of whole commits that are parsed concurrently,
+     * so that a single large file does not leave the other processors idle. Neither the text nor
+     * a json tree of the whole file is ever held in memory.
+     */
     @Nonnull
-    public GerritData parseJsonData(@Nonnull String jsonFileData) {
+    public GerritData parseFile(@Nonnull String filename) throws IOException {
         GerritData data;
         try {
-            JSONObject object = JsonUtils.readJsonString(jsonFileData);
-            int gerritStatsVersion = object.optInt("gerritStatsVersion");
-            if (gerritStatsVersion == 0) {
-                data = parseLegacyFormatData(jsonFileData);
-            } else {
-                data = parseJsonObject(object);
+            data = parseCommitChunks(filename);
+            if (data == null) {
+                try (JsonReader reader = new JsonReader(FileReader.openFile(filename))) {
+                    reader.setLenient(true);
+                    data = parseJsonStream(reader);
+                }
             }
-        } catch (JSONException e) {
+        } catch (MalformedJsonException | EOFException | IllegalStateException e) {
             // the earlier versions of GerritDownloader output were not valid json, but
             // instead files with line-by-line json.
-            data = parseLegacyFormatData(jsonFileData);
+            data = null;
         }
 
+        if (data == null) {
+            try (BufferedReader reader = FileReader.openFile(filename)) {
+                data = parseLegacyFormatData(reader);
+            }
+        }
         return data;
     }
 
+    /**
+     * Parses the commits array of the file in chunks, or returns null if the file does not start
+     * with the versions and the commits array, in the order GerritDownloader writes them,
+     * or if there is only one processor.
+     */
+    @Nullable
+    private GerritData parseCommitChunks(@Nonnull String filename) throws IOException {
+        if (Runtime.getRuntime().availableProcessors() < 2) {
+            // with nothing to run the chunks concurrently on, splitting them only adds work.
+            return null;
+        }
+        try (InputStream inputStream = FileReader.openInputStream(filename)) {
+            CommitArraySplitter splitter = new CommitArraySplitter(inputStream);
+            String header = splitter.readHeader();
+            if (header == null) {
+                return null;
+            }
+            GerritData data = parseJsonStream(createJsonReader(new StringReader(header + "]}")));
+            if (data == null) {
+                return null;
+            }
+
+            ParserContext context = new ParserContext(data.version, identityPool);
+            parseChunks(() -> splitter.readChunk(CHUNK_SIZE), chunk -> {
+                List<Commit> commits = new ArrayList<>();
+                Reader chunkReader = new InputStreamReader(new ByteArrayInputStream(chunk), StandardCharsets.UTF_8);
+                new CommitReader(createJsonReader(chunkReader), context).readCommits(commits);
+                return commits;
+            }, data.commits);
+            return data;
+        }
+    }
+
     @Nonnull
-    private GerritData parseJsonObject(@Nonnull JSONObject rootObject) {
-        JSONArray jsonCommits = rootObject.getJSONArray("commits");
-        GerritVersion gerritVersion = GerritVersion.fromString(rootObject.getString("gerritVersion"));
-        ParserContext context = new ParserContext(gerritVersion);
-        GerritData data = new GerritData(gerritVersion);
+    private static JsonReader createJsonReader(@Nonnull Reader input) {
+        JsonReader reader = new JsonReader(input);
+        reader.setLenient(true);
+        return reader;
+    }
 
-        for (int i = 0; i < jsonCommits.length(); ++i) {
-            JSONObject jsonCommit = jsonCommits.getJSONObject(i);
-            if (Commit.isCommit(jsonCommit)) {
-                data.commits.add(Commit.fromJson(jsonCommit, context));
+    private interface ChunkSource<T> {
+        /**
+         * Returns the next chunk of text, or null if there are no more.
+         */
+        @Nullable
+        T readChunk() throws IOException;
+    }
+
+    private interface ChunkParser<T> {
+        @Nonnull
+        List<Commit> parseChunk(@Nonnull T chunk) throws IOException;
+    }
+
+    /**
+     * Parses the chunks of the source on the common fork-join pool, adding the commits in the order
+     * of the chunks. A chunk is read only once a permit of {@link #chunksInFlight} is free, so that
+     * at most a few chunks per processor are held in memory at once, however many files are parsed.
+     */
+    private <T> void parseChunks(@Nonnull ChunkSource<T> source,
+                                 @Nonnull ChunkParser<T> parser,
+                                 @Nonnull List<Commit> commits) throws IOException {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        Deque<ForkJoinTask<List<Commit>>> tasks = new ArrayDeque<>();
+        try {
+            while (true) {
+                // while the other files hold the permits, finish the chunks of this file to free one.
+                while (!chunksInFlight.tryAcquire()) {
+                    if (tasks.isEmpty()) {
+                        acquireChunkPermit();
+                        break;
+                    }
+                    commits.addAll(getChunkResult(tasks.remove()));
+                }
+                T chunk;
+                try {
+                    chunk = source.readChunk();
+                } catch (IOException | RuntimeException e) {
+                    chunksInFlight.release();
+                    throw e;
+                }
+                if (chunk == null) {
+                    chunksInFlight.release();
+                    break;
+                }
+                T parsedChunk = chunk;
+                tasks.add(pool.submit(() -> parser.parseChunk(parsedChunk)));
+            }
+            while (!tasks.isEmpty()) {
+                commits.addAll(getChunkResult(tasks.remove()));
+            }
+        } finally {
+            for (ForkJoinTask<List<Commit>> task : tasks) {
+                task.cancel(true);
+                chunksInFlight.release();
             }
         }
+    }
+
+    private void acquireChunkPermit() throws InterruptedIOException {
+        try {
+            chunksInFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException exception = new InterruptedIOException("Interrupted while parsing the commits");
+            exception.initCause(e);
+            throw exception;
+        }
+    }
+
+    /**
+     * Waits for the chunk to be parsed, and releases its permit.
+     */
+    @Nonnull
+    private List<Commit> getChunkResult(@Nonnull ForkJoinTask<List<Commit>> task) throws IOException {
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException("Parsing the commits failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException exception = new InterruptedIOException("Interrupted while parsing the commits");
+            exception.initCause(e);
+            throw exception;
+        } finally {
+            chunksInFlight.release();
+        }
+    }
+
+    /**
+     * Reads the root object of the file, or returns null if it is not in the GerritStats format.
+     * In files written by GerritDownloader, the versions come before the commits; if not,
+     * the commits are read without knowing the Gerrit version.
+     */
+    @Nullable
+    private GerritData parseJsonStream(@Nonnull JsonReader reader) throws IOException {
+        int gerritStatsVersion = 0;
+        GerritVersion gerritVersion = GerritVersion.makeInvalid();
+        List<Commit> commits = new ArrayList<>();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "gerritStatsVersion":
+                    gerritStatsVersion = reader.peek() == JsonToken.NUMBER ? reader.nextInt() : 0;
+                    break;
+                case "gerritVersion":
+                    gerritVersion = GerritVersion.fromString(reader.nextString());
+                    break;
+                case "commits":
+                    new CommitReader(reader, new ParserContext(gerritVersion, identityPool)).readCommits(commits);
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
 
+        if (gerritStatsVersion == 0) {
+            return null;
+        }
+        GerritData data = new GerritData(gerritVersion);
+        data.commits.addAll(commits);
         return data;
     }
 
     @Nonnull
-    private GerritData parseLegacyFormatData(@Nonnull String jsonCommitData) {
+    private GerritData parseLegacyFormatData(@Nonnull BufferedReader reader) throws IOException {
         System.out.println("Using legacy file format parser for GerritStats .json file(s).");
         System.out.println("This file format has some limitations.");
         System.out.println("Please rerun GerritDownloader to start using the new format.");
@@ -79,22 +292,53 @@ public class GerritStatParser {
         GerritVersion gerritVersion = GerritVersion.makeInvalid();
 
         GerritData data = new GerritData(gerritVersion);
-        ParserContext context = new ParserContext(gerritVersion);
-
-        String[] lines = jsonCommitData.split("\n");
-        for (String line : lines) {
-            try {
-                JSONObject lineJson = JsonUtils.readJsonString(line);
-                if (Commit.isCommit(lineJson)) {
-                    data.commits.add(Commit.fromJson(lineJson, context));
-                    // ignore the stats, log the rest in case the format changes
-                } else if (!lineJson.get("type").equals("stats")) {
-                    System.err.println("Ignored line " + line);
-                }
-            } catch (JSONException ex) {
-                System.err.println(String.format("Not JsonObject: '%s'", line));
+        ParserContext context = new ParserContext(gerritVersion, identityPool);
+
+        // each line is a json object of its own, so the lines can be parsed in chunks too.
+        parseChunks(() -> readLines(reader, CHUNK_SIZE), chunk -> {
+            List<Commit> commits = new ArrayList<>();
+            // every line ends with a newline, so the last element is always empty.
+            String[] lines = chunk.split("\n", -1);
+            for (int i = 0; i < lines.length - 1; ++i) {
+                parseLegacyFormatLine(lines[i], context, commits);
             }
-        }
+            return commits;
+        }, data.commits);
         return data;
     }
+
+    /**
+     * Reads lines until they are at least minLength characters long or the text ends, returning them
+     * separated by newlines, or null if there are no more lines.
+     */
+    @Nullable
+    private static String readLines(@Nonnull BufferedReader reader, int minLength) throws IOException {
+        StringBuilder lines = new StringBuilder();
+        String line = reader.readLine();
+        while (line != null) {
+            lines.append(line).append('\n');
+            if (lines.length() >= minLength) {
+                break;
+            }
+            line = reader.readLine();
+        }
+        return lines.length() > 0 ? lines.toString() : null;
+    }
+
+    private static void parseLegacyFormatLine(@Nonnull String line,
+                                              @Nonnull ParserContext context,
+                                              @Nonnull List<Commit> commits) {
+        try {
+            CommitReader commitReader = new CommitReader(createJsonReader(new StringReader(line)), context);
+            Commit commit = commitReader.readCommit();
+            if (commit != null) {
+                commits.add(commit);
+                // ignore the stats, log the rest in case the format changes
+            } else if (!"stats".equals(commitReader.getRowType())) {
+                System.err.println("Ignored line " + line);
+            }
+        } catch (IOException | IllegalStateException ex) {
+            System.err.println(String.format("Not JsonObject: '%s'", line));
+        }
+    }
 }
@@ -1,15 +1,21 @@
 package com.holmsted.gerrit;
 
-import com.holmsted.file.FileReader;
+import com.holmsted.file.Compression;
 import com.holmsted.gerrit.GerritStatParser.GerritData;
 import com.holmsted.gerrit.processors.perperson.PerPersonDataProcessor;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.annotation.Nonnull;
-import javax.annotation.Nullable;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -29,24 +35,17 @@ public final class GerritStatsMain {
         filter.setIncludedEmails(commandLine.getIncludedEmails());
         filter.setExcludedEmails(commandLine.getExcludedEmails());
         filter.setIncludeBranches(commandLine.getIncludeBranches());
+        filter.setDateRange(commandLine.getAfterDate(), commandLine.getBeforeDate());
 
         List<Commit> commits = new ArrayList<>();
-        GerritStatParser commitDataParser = new GerritStatParser();
 
-        List<String> filenames = processFilenames(commandLine.getFilenames());
+        List<String> filenames = skipUnmatchedFiles(processFilenames(commandLine.getFilenames()), filter);
         GerritVersion minVersion = GerritVersion.makeInvalid();
 
-        for (String filename : filenames) {
-            @Nullable
-            String data = FileReader.readFile(checkNotNull(filename));
-            if (data != null) {
-                GerritData gerritData = commitDataParser.parseJsonData(data);
-                commits.addAll(gerritData.commits);
-                if (minVersion.isInvalid() || !gerritData.version.isAtLeast(minVersion)) {
-                    minVersion = gerritData.version;
-                }
-            } else {
-                System.err.println(String.format("Could not read file '%s'", filename));
+        for (GerritData gerritData : parseFiles(filenames, commandLine.getThreadCount())) {
+            commits.addAll(gerritData.commits);
+            if (minVersion.isInvalid() || !gerritData.version.isAtLeast(minVersion)) {
+                minVersion = gerritData.version;
             }
         }
 
@@ -64,6 +63,42 @@ public final class GerritStatsMain {
         perPersonFormatter.invoke(queryData);
     }
 
+    /**
+     * Reads and parses the given files using a pool of at most threadCount workers.
+     * The data is returned in the same order as the filenames, leaving out the files that could not be read.
+     */
+    @Nonnull
+    private static List<GerritData> parseFiles(@Nonnull List<String> filenames, int threadCount) {
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(threadCount, filenames.size())));
+
+        // the files share the identity pool, so that each person is held in memory once.
+        GerritStatParser parser = new GerritStatParser(new IdentityPool());
+        List<Future<GerritData>> futures = new ArrayList<>();
+        for (String filename : filenames) {
+            futures.add(executor.submit(() -> parser.parseFile(checkNotNull(filename))));
+        }
+        executor.shutdown();
+
+        List<GerritData> result = new ArrayList<>();
+        for (int i = 0; i < futures.size(); ++i) {
+            try {
+                result.add(futures.get(i).get());
+            } catch (ExecutionException e) {
+                if (!(e.getCause() instanceof IOException)) {
+                    throw new IllegalStateException("Parsing file '" + filenames.get(i) + "' failed", e);
+                }
+                e.printStackTrace();
+                System.err.println(String.format("Could not read file '%s'", filenames.get(i)));
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return result;
+    }
+
     @Nonnull
     private static List<String> processFilenames(@Nonnull List<String> filenames) {
         List<String> result = new ArrayList<>();
@@ -77,7 +112,8 @@ public final class GerritStatsMain {
                 result.add(filename);
             } else {
                 File[] subdirFiles = file.listFiles((dir, name) -> {
-                    return name.endsWith(".json");
+                    // skip the state and report files GerritDownloader keeps next to the data
+                    return name.charAt(0) != '.' && Compression.isJsonFilename(name);
                 });
                 if (subdirFiles != null) {
                     for (File subdirFile : subdirFiles) {
@@ -90,6 +126,28 @@ public final class GerritStatsMain {
         return result;
     }
 
+    /**
+     * Leaves out the files that the manifest of their directory shows to hold no commits the filter includes.
+     * Files without a current manifest entry are kept.
+     */
+    @Nonnull
+    private static List<String> skipUnmatchedFiles(@Nonnull List<String> filenames, @Nonnull CommitFilter filter) {
+        Map<String, DownloadManifest> manifests = new HashMap<>();
+        List<String> result = new ArrayList<>();
+        for (String filename : filenames) {
+            File file = new File(filename).getAbsoluteFile();
+            DownloadManifest manifest = manifests.computeIfAbsent(file.getParent(), DownloadManifest::load);
+            DownloadManifest.FileEntry entry = manifest.getEntry(file.getName());
+            if (entry != null && entry.isCurrent(file) && !filter.mayIncludeAny(entry)) {
+                System.out.println(String.format("Skipping '%s', as none of its commits match the branches and dates",
+                        filename));
+            } else {
+                result.add(filename);
+            }
+        }
+        return result;
+    }
+
     private GerritStatsMain() {
     }
 }
@@ -0,0 +1,75 @@
+package com.holmsted.gerrit;
+
+import com.holmsted.gerrit.Commit.Identity;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Hands out one shared instance for each distinct identity read from the data, rather than one for every
+ * owner, reviewer, uploader, author, approver and commenter, which is what keeps the heap small with large data.
+ * <p>
+ * The identities of the same person, i.e. with the same identifier, also share the identifier string.
+ * <p>
+ * The files and their chunks are parsed concurrently, so the pool is safe to use from several threads.
+ */
+public final class IdentityPool {
+
+    @Nonnull
+    private final ConcurrentMap<IdentityKey, Identity> identities = new ConcurrentHashMap<>();
+    @Nonnull
+    private final ConcurrentMap<String, String> identifiers = new ConcurrentHashMap<>();
+
+    private static final class IdentityKey {
+        @Nullable
+        final String name;
+        @Nullable
+        final String email;
+        @Nullable
+        final String username;
+
+        IdentityKey(@Nullable String name, @Nullable String email, @Nullable String username) {
+            this.name = name;
+            this.email = email;
+            this.username = username;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof IdentityKey)) {
+                return false;
+            }
+            IdentityKey otherKey = (IdentityKey) other;
+            return Objects.equals(name, otherKey.name)
+                    && Objects.equals(email, otherKey.email)
+                    && Objects.equals(username, otherKey.username);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, email, username);
+        }
+    }
+
+    /**
+     * Returns the identity with the given name, email and username, creating it on first use.
+     */
+    @Nonnull
+    public Identity get(@Nullable String name, @Nullable String email, @Nullable String username) {
+        IdentityKey key = new IdentityKey(name, email, username);
+        // looking up first avoids the locking of computeIfAbsent, as nearly all identities already exist.
+        Identity identity = identities.get(key);
+        if (identity != null) {
+            return identity;
+        }
+        return identities.computeIfAbsent(key, newKey -> {
+            String identifier = Identity.createIdentifier(email, username);
+            String sharedIdentifier = identifiers.computeIfAbsent(identifier, newIdentifier -> newIdentifier);
+            return new Identity(name, email, username, sharedIdentifier);
+        });
+    }
+}
@@ -0,0 +1,113 @@
+package com.holmsted.gerrit.processors;
+
+import com.google.common.base.Preconditions;
+import com.holmsted.gerrit.Commit;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Visits commits on the common fork-join pool. The commits are split into contiguous ranges, or shards,
+ * that are each visited by a visitor of their own, so the visitors need no locking.
+ * <p>
+ * Once visited, the shards are merged pairwise, each with the shard of the commits that follow it.
+ * As long as the merge is associative, the result is then the same as that of a single visitor
+ * visiting all the commits in order, no matter how the commits were split.
+ */
+public final class ParallelCommitVisitor {
+
+    /**
+     * The least number of commits worth visiting in a shard of their own.
+     */
+    private static final int MIN_SHARD_SIZE = 512;
+    private static final int SHARDS_PER_THREAD = 4;
+
+    private ParallelCommitVisitor() {
+    }
+
+    /**
+     * Visits the commits with visitors created by the given factory, and returns the visitor
+     * that the others were merged into. The merge function merges the second visitor, which visited
+     * the commits following those of the first one, into the first one, after which the second one is not used.
+     */
+    @Nonnull
+    public static <V extends CommitVisitor> V visit(@Nonnull List<Commit> commits,
+                                                    @Nonnull Supplier<V> visitorFactory,
+                                                    @Nonnull BiConsumer<V, V> merger) {
+        if (Runtime.getRuntime().availableProcessors() < 2 || commits.size() < MIN_SHARD_SIZE * 2) {
+            // with nothing to visit the shards concurrently on, merging them only adds work.
+            return visitAll(commits, visitorFactory);
+        }
+        int shardCount = ForkJoinPool.commonPool().getParallelism() * SHARDS_PER_THREAD;
+        int shardSize = Math.max(MIN_SHARD_SIZE, (commits.size() + shardCount - 1) / shardCount);
+        return visit(commits, shardSize, visitorFactory, merger);
+    }
+
+    /**
+     * Visits the commits like {@link #visit(List, Supplier, BiConsumer)}, in shards of at most
+     * the given number of commits rather than of a size chosen for the processors.
+     */
+    @Nonnull
+    public static <V extends CommitVisitor> V visit(@Nonnull List<Commit> commits,
+                                                    int shardSize,
+                                                    @Nonnull Supplier<V> visitorFactory,
+                                                    @Nonnull BiConsumer<V, V> merger) {
+        Preconditions.checkArgument(shardSize > 0, "The shard size must be positive");
+        if (commits.size() <= shardSize) {
+            return visitAll(commits, visitorFactory);
+        }
+        return ForkJoinPool.commonPool().invoke(
+                new ShardTask<>(commits, 0, commits.size(), shardSize, visitorFactory, merger));
+    }
+
+    @Nonnull
+    private static <V extends CommitVisitor> V visitAll(@Nonnull List<Commit> commits,
+                                                        @Nonnull Supplier<V> visitorFactory) {
+        V visitor = visitorFactory.get();
+        visitor.visit(commits);
+        return visitor;
+    }
+
+    private static final class ShardTask<V extends CommitVisitor> extends RecursiveTask<V> {
+
+        private static final long serialVersionUID = 1L;
+
+        @Nonnull
+        private final transient List<Commit> commits;
+        private final int start;
+        private final int end;
+        private final int shardSize;
+        @Nonnull
+        private final transient Supplier<V> visitorFactory;
+        @Nonnull
+        private final transient BiConsumer<V, V> merger;
+
+        ShardTask(@Nonnull List<Commit> commits, int start, int end, int shardSize,
+                  @Nonnull Supplier<V> visitorFactory, @Nonnull BiConsumer<V, V> merger) {
+            this.commits = commits;
+            this.start = start;
+            this.end = end;
+            this.shardSize = shardSize;
+            this.visitorFactory = visitorFactory;
+            this.merger = merger;
+        }
+
+        @Override
+        protected V compute() {
+            if (end - start <= shardSize) {
+                return visitAll(commits.subList(start, end), visitorFactory);
+            }
+            int middle = (start + end) >>> 1;
+            ShardTask<V> second = new ShardTask<>(commits, middle, end, shardSize, visitorFactory, merger);
+            second.fork();
+            V firstVisitor = new ShardTask<>(commits, start, middle, shardSize, visitorFactory, merger).compute();
+            merger.accept(firstVisitor, second.join());
+            return firstVisitor;
+        }
+    }
+}
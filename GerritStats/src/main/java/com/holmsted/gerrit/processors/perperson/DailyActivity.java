@@ -0,0 +1,199 @@
+package com.holmsted.gerrit.processors.perperson;
+
+import org.joda.time.DateTimeZone;
+import org.joda.time.Days;
+import org.joda.time.LocalDate;
+
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+
+/**
+ * The days on which an identity was active, with the number of events on each day.
+ * <p>
+ * A day is the calendar date of the event in the time zone of the report, which is the default
+ * time zone of the JVM, and is kept as the number of days from 1970-01-01 to it, its epoch day.
+ * The days are kept in a sorted array, which costs no allocations per event, and from which
+ * the histograms of the events per day, week and month are read in a single pass, as primitive arrays
+ * that are written into the per-person data as they are.
+ */
+public final class DailyActivity {
+
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int DAYS_PER_WEEK = 7;
+    /**
+     * 1970-01-01 was a Thursday, three days after the Monday that starts its week.
+     */
+    private static final int EPOCH_DAY_OF_WEEK_OFFSET = 3;
+    private static final LocalDate EPOCH_DATE = new LocalDate(1970, 1, 1);
+
+    @Nonnull
+    private final DateTimeZone timeZone;
+
+    private int[] days = new int[INITIAL_CAPACITY];
+    private int[] eventCounts = new int[INITIAL_CAPACITY];
+    private int dayCount;
+
+    /**
+     * The number of events in each active period, in ascending order of the periods. A period is identified
+     * by the epoch day it starts on, and the periods without any events are left out.
+     */
+    public static final class Histogram {
+        @Nonnull
+        public final int[] startDays;
+        @Nonnull
+        public final int[] eventCounts;
+
+        Histogram(@Nonnull int[] startDays, @Nonnull int[] eventCounts, int periodCount) {
+            this.startDays = Arrays.copyOf(startDays, periodCount);
+            this.eventCounts = Arrays.copyOf(eventCounts, periodCount);
+        }
+    }
+
+    public DailyActivity() {
+        this(DateTimeZone.getDefault());
+    }
+
+    DailyActivity(@Nonnull DateTimeZone timeZone) {
+        this.timeZone = timeZone;
+    }
+
+    /**
+     * Adds an event at the given time, in milliseconds since the epoch.
+     */
+    public void add(long unixEpochMsec) {
+        addEvent(toEpochDay(unixEpochMsec));
+    }
+
+    /**
+     * Returns the number of days with any events.
+     */
+    public int getDayCount() {
+        return dayCount;
+    }
+
+    /**
+     * Returns the number of events on each active day.
+     */
+    @Nonnull
+    public Histogram getEventsPerDay() {
+        return new Histogram(days, eventCounts, dayCount);
+    }
+
+    /**
+     * Returns the number of events in each active week, which starts on a Monday.
+     */
+    @Nonnull
+    public Histogram getEventsPerWeek() {
+        HistogramBuilder builder = new HistogramBuilder(dayCount);
+        for (int i = 0; i < dayCount; ++i) {
+            builder.add(days[i] - Math.floorMod(days[i] + EPOCH_DAY_OF_WEEK_OFFSET, DAYS_PER_WEEK), eventCounts[i]);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns the number of events in each active calendar month.
+     */
+    @Nonnull
+    public Histogram getEventsPerMonth() {
+        HistogramBuilder builder = new HistogramBuilder(dayCount);
+        int monthStart = 0;
+        int nextMonthStart = Integer.MIN_VALUE;
+        for (int i = 0; i < dayCount; ++i) {
+            // the days are sorted, so the month only needs to be looked up when it changes.
+            if (days[i] >= nextMonthStart) {
+                LocalDate firstDayOfMonth = EPOCH_DATE.plusDays(days[i]).withDayOfMonth(1);
+                monthStart = Days.daysBetween(EPOCH_DATE, firstDayOfMonth).getDays();
+                nextMonthStart = Days.daysBetween(EPOCH_DATE, firstDayOfMonth.plusMonths(1)).getDays();
+            }
+            builder.add(monthStart, eventCounts[i]);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Merges the events of the other activity into this one.
+     */
+    void merge(@Nonnull DailyActivity other) {
+        int[] mergedDays = new int[Math.max(INITIAL_CAPACITY, dayCount + other.dayCount)];
+        int[] mergedEventCounts = new int[mergedDays.length];
+        int mergedDayCount = 0;
+        int index = 0;
+        int otherIndex = 0;
+        while (index < dayCount || otherIndex < other.dayCount) {
+            int day;
+            int count;
+            if (otherIndex == other.dayCount || index < dayCount && days[index] < other.days[otherIndex]) {
+                day = days[index];
+                count = eventCounts[index++];
+            } else if (index == dayCount || other.days[otherIndex] < days[index]) {
+                day = other.days[otherIndex];
+                count = other.eventCounts[otherIndex++];
+            } else {
+                day = days[index];
+                count = eventCounts[index++] + other.eventCounts[otherIndex++];
+            }
+            mergedDays[mergedDayCount] = day;
+            mergedEventCounts[mergedDayCount] = count;
+            ++mergedDayCount;
+        }
+        days = mergedDays;
+        eventCounts = mergedEventCounts;
+        dayCount = mergedDayCount;
+    }
+
+    /**
+     * Collects a histogram from periods added in ascending order, summing the events of the same period.
+     */
+    private static final class HistogramBuilder {
+        private final int[] startDays;
+        private final int[] eventCounts;
+        private int periodCount;
+
+        HistogramBuilder(int maxPeriodCount) {
+            startDays = new int[maxPeriodCount];
+            eventCounts = new int[maxPeriodCount];
+        }
+
+        void add(int startDay, int eventCount) {
+            if (periodCount > 0 && startDays[periodCount - 1] == startDay) {
+                eventCounts[periodCount - 1] += eventCount;
+            } else {
+                startDays[periodCount] = startDay;
+                eventCounts[periodCount] = eventCount;
+                ++periodCount;
+            }
+        }
+
+        @Nonnull
+        Histogram build() {
+            return new Histogram(startDays, eventCounts, periodCount);
+        }
+    }
+
+    private int toEpochDay(long unixEpochMsec) {
+        return (int) Math.floorDiv(unixEpochMsec + timeZone.getOffset(unixEpochMsec), MILLIS_PER_DAY);
+    }
+
+    private void addEvent(int day) {
+        int index = Arrays.binarySearch(days, 0, dayCount, day);
+        if (index >= 0) {
+            ++eventCounts[index];
+            return;
+        }
+
+        // most events fall on days that are already active, so inserting new ones in between is rare enough.
+        int insertionIndex = -(index + 1);
+        if (dayCount == days.length) {
+            days = Arrays.copyOf(days, dayCount * 2);
+            eventCounts = Arrays.copyOf(eventCounts, dayCount * 2);
+        }
+        System.arraycopy(days, insertionIndex, days, insertionIndex + 1, dayCount - insertionIndex);
+        System.arraycopy(eventCounts, insertionIndex, eventCounts, insertionIndex + 1, dayCount - insertionIndex);
+        days[insertionIndex] = day;
+        eventCounts[insertionIndex] = 1;
+        ++dayCount;
+    }
+}
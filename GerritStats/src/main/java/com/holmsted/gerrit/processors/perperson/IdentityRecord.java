@@ -5,15 +5,12 @@ import com.holmsted.gerrit.Commit.Approval;
 import com.holmsted.gerrit.Commit.Identity;
 import com.holmsted.gerrit.Commit.PatchSet;
 
-import org.joda.time.DateTime;
-
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.TreeMap;
 
 import javax.annotation.Nonnull;
 
@@ -22,6 +19,8 @@ import static com.google.common.base.Preconditions.checkNotNull;
 @SuppressWarnings("PMD.TooManyFields")
 public class IdentityRecord {
 
+    private static final int INITIAL_CODE_REVIEW_TIME_CAPACITY = 8;
+
     final Commit.Identity identity;
 
     int reviewCountPlus2;
@@ -34,10 +33,17 @@ public class IdentityRecord {
     long lastActiveDate;
 
     long activeDayCount;
-    private final transient Set<String> activeDays = new HashSet<>();
+    private final transient DailyActivity activity = new DailyActivity();
 
     final List<Commit> commits = new ArrayList<>();
 
+    // derived from the commits as they are added, so that the output does not need to go through them again.
+    private transient int selfReviewedCommitCount;
+    private transient int inReviewCommitCount;
+    private transient int abandonedCommitCount;
+    private transient int reworkPatchSetCount;
+    private transient int maxReworkPatchSetCount;
+
     final List<Commit> addedAsReviewerTo = new ArrayList<>();
     final ReviewerDataTable reviewRequestors = new ReviewerDataTable();
 
@@ -45,15 +51,29 @@ public class IdentityRecord {
     final PatchSetCommentTable commentsReceived = new PatchSetCommentTable();
     final ReviewerDataTable reviewersForOwnCommits = new ReviewerDataTable();
 
-    final Map<String, GerritProject> repositories = new HashMap<>();
+    final Map<String, GerritProject> repositories = new TreeMap<>();
 
     private long averageTimeInCodeReview;
+    // kept for merging records, which needs the average to be computed again the same way: the time each
+    // submitted commit was in code review, and the number of commits of the record when it was added.
+    private transient long[] codeReviewDurations = new long[INITIAL_CODE_REVIEW_TIME_CAPACITY];
+    private transient int[] codeReviewCommitCounts = new int[INITIAL_CODE_REVIEW_TIME_CAPACITY];
+    private transient int codeReviewTimeCount;
 
     public static class ReviewerData {
         int addedAsReviewerCount;
         int approvalCount;
         int commentCount;
-        final Map<Integer, Integer> approvals = new HashMap<>();
+        final Map<Integer, Integer> approvals = new TreeMap<>();
+
+        void merge(@Nonnull ReviewerData next) {
+            addedAsReviewerCount += next.addedAsReviewerCount;
+            approvalCount += next.approvalCount;
+            commentCount += next.commentCount;
+            for (Map.Entry<Integer, Integer> entry : next.approvals.entrySet()) {
+                approvals.merge(entry.getKey(), entry.getValue(), Integer::sum);
+            }
+        }
     }
 
     public static class GerritProject {
@@ -99,6 +119,11 @@ public class IdentityRecord {
             ReviewerData data = reviewRequestors.computeIfAbsent(patchSet.author, k -> new ReviewerData());
             data.commentCount++;
         }
+
+        void merge(@Nonnull GerritProject next) {
+            commitCountForUser += next.commitCountForUser;
+            reviewRequestors.merge(next.reviewRequestors);
+        }
     }
 
     public IdentityRecord(Commit.Identity identity) {
@@ -133,6 +158,14 @@ public class IdentityRecord {
         return commits;
     }
 
+    /**
+     * Returns the days on which this identity wrote commits, comments or approvals, or its commits were updated.
+     */
+    @Nonnull
+    public DailyActivity getActivity() {
+        return activity;
+    }
+
     public List<Commit> getAddedAsReviewerTo() {
         return addedAsReviewerTo;
     }
@@ -142,11 +175,7 @@ public class IdentityRecord {
     }
 
     public List<Commit.PatchSetComment> getAllCommentsReceived() {
-        List<Commit.PatchSetComment> allComments = new ArrayList<>();
-        for (List<Commit.PatchSetComment> comments : commentsReceived.values()) {
-            allComments.addAll(comments);
-        }
-        return allComments;
+        return commentsReceived.getAllComments();
     }
 
     public Map<Commit.Identity, ReviewerData> getReviewersForOwnCommits() {
@@ -190,46 +219,21 @@ public class IdentityRecord {
     public float getAveragePatchSetCount() {
         int commitCount = commits.size();
         if (commitCount > 0) {
-            int patchSetCount = 0;
-            for (Commit commit : commits) {
-                patchSetCount += commit.getPatchSetCountForKind(Commit.PatchSetKind.REWORK);
-            }
-            return (float) patchSetCount / commits.size();
+            return (float) reworkPatchSetCount / commitCount;
         } else {
             return 0;
         }
     }
 
     public int getMaxPatchSetCount() {
-        int commitCount = commits.size();
-        if (commitCount > 0) {
-            int max = Integer.MIN_VALUE;
-            for (Commit commit : commits) {
-                max = Math.max(commit.getPatchSetCountForKind(Commit.PatchSetKind.REWORK), max);
-            }
-            return max;
-        } else {
-            return 0;
-        }
+        return maxReworkPatchSetCount;
     }
 
     public int getInReviewCommitCount() {
-        int newCommitCount = 0;
-        for (Commit commit : commits) {
-            if ("NEW".equals(commit.status)) {
-                ++newCommitCount;
-            }
-        }
-        return newCommitCount;
+        return inReviewCommitCount;
     }
 
     public int getAbandonedCommitCount() {
-        int abandonedCommitCount = 0;
-        for (Commit commit : commits) {
-            if ("ABANDONED".equals(commit.status)) {
-                ++abandonedCommitCount;
-            }
-        }
         return abandonedCommitCount;
     }
 
@@ -259,47 +263,35 @@ public class IdentityRecord {
         }
     }
 
-    public List<Commit> getSelfReviewedCommits() {
-        List<Commit> result = new ArrayList<>();
+    public int getSelfReviewedCommitCount() {
+        return selfReviewedCommitCount;
+    }
 
-        for (Commit commit : commits) {
-            if (!"MERGED".equals(commit.status)) {
-                continue;
-            }
+    private boolean isSelfReviewed(@Nonnull Commit commit) {
+        if (!"MERGED".equals(commit.status)) {
+            return false;
+        }
 
-            // merge always comes from the last patch set, so check that first
-            boolean selfReviewedLastCommit = true;
-            PatchSet lastPatchSet = commit.patchSets.get(commit.patchSets.size() - 1);
-            for (Approval approval : lastPatchSet.approvals) {
-                if (approval.value == 2) {
-                    selfReviewedLastCommit &= approval.grantedBy.equals(identity);
-                }
-            }
-            if (!selfReviewedLastCommit) {
-                continue;
+        // merge always comes from the last patch set, so check that first
+        boolean selfReviewedLastCommit = true;
+        PatchSet lastPatchSet = commit.patchSets.get(commit.patchSets.size() - 1);
+        for (Approval approval : lastPatchSet.approvals) {
+            if (approval.value == 2) {
+                selfReviewedLastCommit &= approval.grantedBy.equals(identity);
             }
+        }
+        if (!selfReviewedLastCommit) {
+            return false;
+        }
 
-            boolean foundEarlierNonAuthorApproval = false;
-            for (PatchSet patchSet : commit.patchSets) {
-                for (Approval approval : patchSet.approvals) {
-                    if (approval.value == 2 && !approval.grantedBy.equals(identity)) {
-                        foundEarlierNonAuthorApproval = true;
-                        break;
-                    }
-                }
-                if (foundEarlierNonAuthorApproval) {
-                    break;
+        for (PatchSet patchSet : commit.patchSets) {
+            for (Approval approval : patchSet.approvals) {
+                if (approval.value == 2 && !approval.grantedBy.equals(identity)) {
+                    return false;
                 }
             }
-            if (foundEarlierNonAuthorApproval) {
-                continue;
-            }
-
-            result.add(commit);
         }
-
-
-        return result;
+        return true;
     }
 
     public List<Commit.Identity> getMyReviewerList() {
@@ -368,6 +360,17 @@ public class IdentityRecord {
                 projectName -> GerritProject.fromCommit(commit));
         project.commitCountForUser++;
         commits.add(commit);
+        if (isSelfReviewed(commit)) {
+            ++selfReviewedCommitCount;
+        }
+        if ("NEW".equals(commit.status)) {
+            ++inReviewCommitCount;
+        } else if ("ABANDONED".equals(commit.status)) {
+            ++abandonedCommitCount;
+        }
+        int commitReworkPatchSetCount = commit.getPatchSetCountForKind(Commit.PatchSetKind.REWORK);
+        reworkPatchSetCount += commitReworkPatchSetCount;
+        maxReworkPatchSetCount = Math.max(maxReworkPatchSetCount, commitReworkPatchSetCount);
         updateActivityTimestamps(commit.lastUpdatedDate);
         updateActivityTimestamps(commit.createdOnDate);
     }
@@ -376,16 +379,68 @@ public class IdentityRecord {
         firstActiveDate = Math.min(unixEpochMsec, firstActiveDate);
         lastActiveDate = Math.max(unixEpochMsec, lastActiveDate);
 
-        DateTime dateTime = new DateTime(unixEpochMsec);
-        activeDays.add(dateTime.toString("YYYY-MM-DD"));
-
-        activeDayCount = activeDays.size();
+        activity.add(unixEpochMsec);
+        activeDayCount = activity.getDayCount();
     }
 
     void updateAverageTimeInCodeReview(long commitTimeInCodeReviewMsec) {
-        int prevCount = commits.size() - 1;
+        addCodeReviewTime(commits.size(), commitTimeInCodeReviewMsec);
+    }
+
+    private void addCodeReviewTime(int commitCount, long duration) {
+        if (codeReviewTimeCount == codeReviewDurations.length) {
+            codeReviewDurations = Arrays.copyOf(codeReviewDurations, codeReviewTimeCount * 2);
+            codeReviewCommitCounts = Arrays.copyOf(codeReviewCommitCounts, codeReviewTimeCount * 2);
+        }
+        codeReviewDurations[codeReviewTimeCount] = duration;
+        codeReviewCommitCounts[codeReviewTimeCount] = commitCount;
+        ++codeReviewTimeCount;
+
+        int prevCount = commitCount - 1;
         long newAverage = averageTimeInCodeReview * prevCount;
-        averageTimeInCodeReview = (newAverage + commitTimeInCodeReviewMsec) / commits.size();
+        averageTimeInCodeReview = (newAverage + duration) / commitCount;
+    }
+
+    /**
+     * Merges the record of the same identity for the commits that follow the ones of this record into this record,
+     * so that this record ends up the same as if it had been built from all the commits in order.
+     * The data of the other record is taken over where possible, so it must not be used afterwards.
+     */
+    void merge(@Nonnull IdentityRecord next) {
+        reviewCountPlus2 += next.reviewCountPlus2;
+        reviewCountPlus1 += next.reviewCountPlus1;
+        reviewCountMinus1 += next.reviewCountMinus1;
+        reviewCountMinus2 += next.reviewCountMinus2;
+
+        firstActiveDate = Math.min(firstActiveDate, next.firstActiveDate);
+        lastActiveDate = Math.max(lastActiveDate, next.lastActiveDate);
+        activity.merge(next.activity);
+        activeDayCount = activity.getDayCount();
+
+        // the average is rounded at every step, so it is only the same if computed again in order.
+        int prevCommitCount = commits.size();
+        for (int i = 0; i < next.codeReviewTimeCount; ++i) {
+            addCodeReviewTime(prevCommitCount + next.codeReviewCommitCounts[i], next.codeReviewDurations[i]);
+        }
+        commits.addAll(next.commits);
+        selfReviewedCommitCount += next.selfReviewedCommitCount;
+        inReviewCommitCount += next.inReviewCommitCount;
+        abandonedCommitCount += next.abandonedCommitCount;
+        reworkPatchSetCount += next.reworkPatchSetCount;
+        maxReworkPatchSetCount = Math.max(maxReworkPatchSetCount, next.maxReworkPatchSetCount);
+        addedAsReviewerTo.addAll(next.addedAsReviewerTo);
+
+        reviewRequestors.merge(next.reviewRequestors);
+        commentsWritten.merge(next.commentsWritten);
+        commentsReceived.merge(next.commentsReceived);
+        reviewersForOwnCommits.merge(next.reviewersForOwnCommits);
+
+        for (GerritProject project : next.repositories.values()) {
+            GerritProject existingProject = repositories.putIfAbsent(project.name, project);
+            if (existingProject != null) {
+                existingProject.merge(project);
+            }
+        }
     }
 
     private static String formatPrintableDuration(long duration) {
@@ -4,7 +4,7 @@ import com.holmsted.gerrit.Commit;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -13,19 +13,30 @@ import javax.annotation.Nonnull;
 
 public class PatchSetCommentTable implements Map<Commit, List<Commit.PatchSetComment>> {
 
-    private final Map<Commit, List<Commit.PatchSetComment>> commitToComment = new Hashtable<>();
-    private final Map<Commit.PatchSetComment, Commit> commentToCommit = new Hashtable<>();
+    // the commits have no hash codes of their own, so keeping them in the order they were added in
+    // keeps the output the same on every run.
+    private final Map<Commit, List<Commit.PatchSetComment>> commitToComment = new LinkedHashMap<>();
     private final List<Commit.PatchSetComment> allComments = new ArrayList<>();
 
     public void addCommentForCommit(@Nonnull Commit commit, @Nonnull Commit.PatchSetComment patchSetComment) {
         List<Commit.PatchSetComment> patchSetComments = commitToComment.computeIfAbsent(commit,
                 keyCommit -> new ArrayList<>());
         patchSetComments.add(patchSetComment);
-
-        commentToCommit.put(patchSetComment, commit);
         allComments.add(patchSetComment);
+    }
 
-        commitToComment.put(commit, patchSetComments);
+    /**
+     * Merges the comments of the commits that follow the ones of this table into this table.
+     */
+    void merge(@Nonnull PatchSetCommentTable next) {
+        for (Entry<Commit, List<Commit.PatchSetComment>> entry : next.commitToComment.entrySet()) {
+            List<Commit.PatchSetComment> patchSetComments = commitToComment.putIfAbsent(entry.getKey(),
+                    entry.getValue());
+            if (patchSetComments != null) {
+                patchSetComments.addAll(entry.getValue());
+            }
+        }
+        allComments.addAll(next.allComments);
     }
 
     @Nonnull
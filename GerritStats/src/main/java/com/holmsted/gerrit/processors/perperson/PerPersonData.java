@@ -5,7 +5,7 @@ import com.holmsted.gerrit.QueryData;
 
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -13,7 +13,8 @@ import javax.annotation.Nonnull;
 
 public class PerPersonData {
 
-    private final Map<Commit.Identity, IdentityRecord> records = new Hashtable<>();
+    // kept in the order the identities were first seen in, which the output depends on for identities that sort equal.
+    private final Map<Commit.Identity, IdentityRecord> records = new LinkedHashMap<>();
 
     private QueryData queryData;
     private long fromDate;
@@ -67,4 +68,17 @@ public class PerPersonData {
     public Set<Commit.Identity> keySet() {
         return records.keySet();
     }
+
+    /**
+     * Merges the records of the commits that follow the ones of this data into this data,
+     * taking over the records that are not in this data yet.
+     */
+    void merge(@Nonnull PerPersonData next) {
+        for (Map.Entry<Commit.Identity, IdentityRecord> entry : next.records.entrySet()) {
+            IdentityRecord record = records.putIfAbsent(entry.getKey(), entry.getValue());
+            if (record != null) {
+                record.merge(entry.getValue());
+            }
+        }
+    }
 }
@@ -7,128 +7,160 @@ import com.holmsted.gerrit.OutputRules;
 import com.holmsted.gerrit.QueryData;
 import com.holmsted.gerrit.processors.CommitDataProcessor;
 import com.holmsted.gerrit.processors.CommitVisitor;
-
-import java.util.concurrent.atomic.AtomicLong;
+import com.holmsted.gerrit.processors.ParallelCommitVisitor;
 
 import javax.annotation.Nonnull;
 
 public class PerPersonDataProcessor extends CommitDataProcessor<PerPersonData> {
 
-    private final PerPersonData records = new PerPersonData();
+    /**
+     * The shard size that lets {@link ParallelCommitVisitor} choose the size from the number of processors.
+     */
+    static final int DEFAULT_SHARD_SIZE = 0;
+
+    private final int shardSize;
 
     public PerPersonDataProcessor(@Nonnull CommitFilter filter, @Nonnull OutputRules outputRules) {
+        this(filter, outputRules, DEFAULT_SHARD_SIZE);
+    }
+
+    /**
+     * Creates a processor that visits the commits in shards of at most shardSize commits, regardless of
+     * the number of processors, so that tests can check that the sharding does not change the output.
+     */
+    PerPersonDataProcessor(@Nonnull CommitFilter filter, @Nonnull OutputRules outputRules, int shardSize) {
         super(filter, outputRules);
+        this.shardSize = shardSize;
     }
 
     @Override
     public void process(@Nonnull OutputFormatter<PerPersonData> formatter, @Nonnull QueryData queryData) {
-        records.clear();
-        final AtomicLong fromDate = new AtomicLong(Long.MAX_VALUE);
-        final AtomicLong toDate = new AtomicLong(Long.MIN_VALUE);
-
-        CommitVisitor visitor = new CommitVisitor(getCommitFilter()) {
-            @Override
-            public void visitCommit(@Nonnull Commit commit) {
-                IdentityRecord ownerRecord = getOrCreateRecord(commit.owner);
-                ownerRecord.addCommit(commit);
-
-                if (commit.lastUpdatedDate > toDate.get()) {
-                    toDate.set(commit.lastUpdatedDate);
+        PerPersonVisitor visitor = shardSize == DEFAULT_SHARD_SIZE
+                ? ParallelCommitVisitor.visit(queryData.getCommits(), PerPersonVisitor::new, PerPersonVisitor::merge)
+                : ParallelCommitVisitor.visit(queryData.getCommits(), shardSize,
+                        PerPersonVisitor::new, PerPersonVisitor::merge);
+        PerPersonData records = visitor.records;
+        records.setQueryData(queryData);
+        records.setFromDate(visitor.fromDate);
+        records.setToDate(visitor.toDate);
+
+        formatter.format(records);
+    }
+
+    @Nonnull
+    @Override
+    protected OutputFormatter<PerPersonData> createOutputFormatter() {
+        return new PerPersonJsonFormatter(getOutputRules());
+    }
+
+    /**
+     * Collects the per-person data of the commits it visits. When the commits are visited in shards,
+     * each shard gets a visitor of its own, and the visitors are then merged in the order of the commits.
+     */
+    private class PerPersonVisitor extends CommitVisitor {
+
+        private final PerPersonData records = new PerPersonData();
+        private long fromDate = Long.MAX_VALUE;
+        private long toDate = Long.MIN_VALUE;
+
+        PerPersonVisitor() {
+            super(getCommitFilter());
+        }
+
+        /**
+         * Merges the data of the visitor of the commits that follow those of this one into this one.
+         */
+        void merge(@Nonnull PerPersonVisitor next) {
+            records.merge(next.records);
+            fromDate = Math.min(fromDate, next.fromDate);
+            toDate = Math.max(toDate, next.toDate);
+        }
+
+        @Override
+        public void visitCommit(@Nonnull Commit commit) {
+            IdentityRecord ownerRecord = getOrCreateRecord(commit.owner);
+            ownerRecord.addCommit(commit);
+
+            toDate = Math.max(toDate, commit.lastUpdatedDate);
+            fromDate = Math.min(fromDate, commit.lastUpdatedDate);
+
+            for (Commit.Identity identity : commit.reviewers) {
+                if (!getCommitFilter().isIncluded(identity)) {
+                    continue;
                 }
-                if (commit.lastUpdatedDate < fromDate.get()) {
-                    fromDate.set(commit.lastUpdatedDate);
+                if (!ownerRecord.identity.equals(identity)) {
+                    ownerRecord.addReviewerForOwnCommit(identity);
                 }
 
-                for (Commit.Identity identity : commit.reviewers) {
-                    if (!getCommitFilter().isIncluded(identity)) {
-                        continue;
-                    }
-                    if (!ownerRecord.identity.equals(identity)) {
-                        ownerRecord.addReviewerForOwnCommit(identity);
-                    }
-
-                    IdentityRecord reviewerRecord = getOrCreateRecord(identity);
-                    if (!commit.owner.equals(reviewerRecord.identity)) {
-                        reviewerRecord.addReviewedCommit(commit);
-                    }
+                IdentityRecord reviewerRecord = getOrCreateRecord(identity);
+                if (!commit.owner.equals(reviewerRecord.identity)) {
+                    reviewerRecord.addReviewedCommit(commit);
                 }
             }
+        }
 
-            @Override
-            public void visitPatchSet(@Nonnull Commit commit, @Nonnull Commit.PatchSet patchSet) {
-                IdentityRecord ownerRecord = getOrCreateRecord(commit.owner);
-                for (Commit.Approval approval : patchSet.approvals) {
-                    if (approval.type == null) {
-                        continue;
-                    }
-                    switch (approval.type) {
-                        case Commit.Approval.TYPE_CODE_REVIEW: {
-                            if (getCommitFilter().isIncluded(approval.grantedBy)
-                                    && !ownerRecord.identity.equals(approval.grantedBy)) {
-                                ownerRecord.addApprovalForOwnCommit(approval.grantedBy, approval);
-                            }
-                            break;
-                        }
-                        case Commit.Approval.TYPE_SUBMITTED: {
-                            ownerRecord.updateAverageTimeInCodeReview(approval.grantedOnDate - commit.createdOnDate);
-                            break;
+        @Override
+        public void visitPatchSet(@Nonnull Commit commit, @Nonnull Commit.PatchSet patchSet) {
+            IdentityRecord ownerRecord = getOrCreateRecord(commit.owner);
+            for (Commit.Approval approval : patchSet.approvals) {
+                if (approval.type == null) {
+                    continue;
+                }
+                switch (approval.type) {
+                    case Commit.Approval.TYPE_CODE_REVIEW: {
+                        if (getCommitFilter().isIncluded(approval.grantedBy)
+                                && !ownerRecord.identity.equals(approval.grantedBy)) {
+                            ownerRecord.addApprovalForOwnCommit(approval.grantedBy, approval);
                         }
-                        default:
-                            break;
+                        break;
                     }
+                    case Commit.Approval.TYPE_SUBMITTED: {
+                        ownerRecord.updateAverageTimeInCodeReview(approval.grantedOnDate - commit.createdOnDate);
+                        break;
+                    }
+                    default:
+                        break;
                 }
             }
+        }
 
-            @Override
-            public void visitApproval(@Nonnull Commit.PatchSet patchSet, @Nonnull Commit.Approval approval) {
-                Identity grantedBy = approval.grantedBy;
-                Identity patchSetAuthor = patchSet.author;
-                if (grantedBy == null || patchSetAuthor == null) {
-                    return;
-                }
-
-                if (!grantedBy.equals(patchSetAuthor)) {
-                    IdentityRecord record = getOrCreateRecord(grantedBy);
-                    record.addApprovalByThisIdentity(patchSetAuthor, approval);
-                }
+        @Override
+        public void visitApproval(@Nonnull Commit.PatchSet patchSet, @Nonnull Commit.Approval approval) {
+            Identity grantedBy = approval.grantedBy;
+            Identity patchSetAuthor = patchSet.author;
+            if (grantedBy == null || patchSetAuthor == null) {
+                return;
             }
 
-            @Override
-            public void visitPatchSetComment(@Nonnull Commit commit,
-                                             @Nonnull Commit.PatchSet patchSet,
-                                             @Nonnull Commit.PatchSetComment patchSetComment) {
-                IdentityRecord reviewerRecord = getOrCreateRecord(patchSetComment.reviewer);
-                if (!patchSet.author.equals(patchSetComment.reviewer)) {
-                    reviewerRecord.addWrittenComment(commit, patchSet, patchSetComment);
-                }
-
-                IdentityRecord authorRecord = getOrCreateRecord(patchSet.author);
-                if (!patchSet.author.equals(patchSetComment.reviewer)) {
-                    authorRecord.addReceivedComment(commit, patchSet, patchSetComment);
-                }
+            if (!grantedBy.equals(patchSetAuthor)) {
+                IdentityRecord record = getOrCreateRecord(grantedBy);
+                record.addApprovalByThisIdentity(patchSetAuthor, approval);
             }
-        };
-        visitor.visit(queryData.getCommits());
-        records.setQueryData(queryData);
-        records.setFromDate(fromDate.get());
-        records.setToDate(toDate.get());
+        }
 
-        formatter.format(records);
-    }
+        @Override
+        public void visitPatchSetComment(@Nonnull Commit commit,
+                                         @Nonnull Commit.PatchSet patchSet,
+                                         @Nonnull Commit.PatchSetComment patchSetComment) {
+            IdentityRecord reviewerRecord = getOrCreateRecord(patchSetComment.reviewer);
+            if (!patchSet.author.equals(patchSetComment.reviewer)) {
+                reviewerRecord.addWrittenComment(commit, patchSet, patchSetComment);
+            }
 
-    @Nonnull
-    @Override
-    protected OutputFormatter<PerPersonData> createOutputFormatter() {
-        return new PerPersonJsonFormatter(getOutputRules());
-    }
+            IdentityRecord authorRecord = getOrCreateRecord(patchSet.author);
+            if (!patchSet.author.equals(patchSetComment.reviewer)) {
+                authorRecord.addReceivedComment(commit, patchSet, patchSetComment);
+            }
+        }
 
-    @Nonnull
-    private IdentityRecord getOrCreateRecord(@Nonnull Commit.Identity identity) {
-        IdentityRecord identityRecord = records.get(identity);
-        if (identityRecord == null) {
-            identityRecord = new IdentityRecord(identity);
-            records.put(identity, identityRecord);
+        @Nonnull
+        private IdentityRecord getOrCreateRecord(@Nonnull Commit.Identity identity) {
+            IdentityRecord identityRecord = records.get(identity);
+            if (identityRecord == null) {
+                identityRecord = new IdentityRecord(identity);
+                records.put(identity, identityRecord);
+            }
+            return identityRecord;
         }
-        return identityRecord;
     }
 }
@@ -223,7 +223,7 @@ class PerPersonJsonFormatter implements CommitDataProcessor.OutputFormatter<PerP
             json.add("receivedCommentRatio", context.serialize(identityRecord.getReceivedCommentRatio()));
             json.add("reviewCommentRatio", context.serialize(identityRecord.getReviewCommentRatio()));
             json.add("addedAsReviewerToCount", context.serialize(identityRecord.addedAsReviewerTo.size()));
-            json.add("selfReviewedCommitCount", context.serialize(identityRecord.getSelfReviewedCommits().size()));
+            json.add("selfReviewedCommitCount", context.serialize(identityRecord.getSelfReviewedCommitCount()));
             json.add("abandonedCommitCount", context.serialize(identityRecord.getAbandonedCommitCount()));
             json.add("firstActiveDate", context.serialize(identityRecord.firstActiveDate));
             json.add("lastActiveDate", context.serialize(identityRecord.lastActiveDate));
@@ -260,9 +260,15 @@ class PerPersonJsonFormatter implements CommitDataProcessor.OutputFormatter<PerP
                     JsonObject object = (JsonObject) tree;
                     object.add("abandonedCommitCount", new JsonPrimitive(record.getAbandonedCommitCount()));
                     object.add("projects", gson.toJsonTree(record.getGerritProjects()));
-                    object.add("selfReviewedCommitCount", gson.toJsonTree(record.getSelfReviewedCommits().size()));
+                    object.add("selfReviewedCommitCount", gson.toJsonTree(record.getSelfReviewedCommitCount()));
                     object.add("inReviewCommitCount", new JsonPrimitive(record.getInReviewCommitCount()));
 
+                    JsonObject activity = new JsonObject();
+                    activity.add("eventsPerDay", gson.toJsonTree(record.getActivity().getEventsPerDay()));
+                    activity.add("eventsPerWeek", gson.toJsonTree(record.getActivity().getEventsPerWeek()));
+                    activity.add("eventsPerMonth", gson.toJsonTree(record.getActivity().getEventsPerMonth()));
+                    object.add("activity", activity);
+
                     elementAdapter.write(writer, tree);
                 }
 
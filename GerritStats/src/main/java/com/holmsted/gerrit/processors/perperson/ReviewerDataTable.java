@@ -3,7 +3,26 @@ package com.holmsted.gerrit.processors.perperson;
 import com.holmsted.gerrit.Commit;
 import com.holmsted.gerrit.processors.perperson.IdentityRecord.ReviewerData;
 
-import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
-public class ReviewerDataTable extends Hashtable<Commit.Identity, ReviewerData> {
+import javax.annotation.Nonnull;
+
+/**
+ * The reviewer data of identities, in the order the identities were first seen in.
+ */
+public class ReviewerDataTable extends LinkedHashMap<Commit.Identity, ReviewerData> {
+
+    /**
+     * Merges the data of the commits that follow the ones of this table into this table,
+     * taking over the data of the identities that are not in this table yet.
+     */
+    void merge(@Nonnull ReviewerDataTable next) {
+        for (Map.Entry<Commit.Identity, ReviewerData> entry : next.entrySet()) {
+            ReviewerData data = putIfAbsent(entry.getKey(), entry.getValue());
+            if (data != null) {
+                data.merge(entry.getValue());
+            }
+        }
+    }
 }
@@ -0,0 +1,122 @@
+package com.holmsted.gerrit;
+
+import com.google.common.collect.ImmutableList;
+import com.holmsted.gerrit.Commit.Approval;
+import com.holmsted.gerrit.Commit.ChangeComment;
+import com.holmsted.gerrit.Commit.Identity;
+import com.holmsted.gerrit.Commit.PatchSet;
+import com.holmsted.gerrit.Commit.PatchSetComment;
+import com.holmsted.gerrit.Commit.PatchSetKind;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Creates the objects that tests outside this package cannot construct, and synthetic commits to process.
+ */
+public final class TestData {
+
+    private static final long FIRST_COMMIT_DATE = 1400000000000L;
+    private static final int USER_COUNT = 12;
+    private static final int MAX_REVIEWERS = 3;
+    private static final int MAX_PATCH_SETS = 4;
+    private static final int MAX_COMMENTS = 3;
+
+    private TestData() {
+    }
+
+    @Nonnull
+    public static CommitFilter createCommitFilter() {
+        return new CommitFilter();
+    }
+
+    @Nonnull
+    public static OutputRules createOutputRules(@Nonnull String outputDir) {
+        CommandLineParser commandLine = new CommandLineParser();
+        commandLine.parse(new String[] {"--file", "unused.json", "--output-dir", outputDir});
+        return new OutputRules(commandLine);
+    }
+
+    @Nonnull
+    public static QueryData createQueryData(@Nonnull List<Commit> commits) {
+        return new QueryData(ImmutableList.of("generated.json"), commits, GerritVersion.fromString("2.12.2"));
+    }
+
+    /**
+     * Generates commits in the order of their creation, spread over several months, with the given seed,
+     * so that the same seed always generates the same commits.
+     */
+    @Nonnull
+    public static List<Commit> generateCommits(int count, long seed) {
+        Random random = new Random(seed);
+        IdentityPool identityPool = new IdentityPool();
+        List<Commit> commits = new ArrayList<>(count);
+        long createdOnDate = FIRST_COMMIT_DATE;
+        for (int number = 1; number <= count; ++number) {
+            createdOnDate += random.nextInt((int) TimeUnit.HOURS.toMillis(20));
+            commits.add(generateCommit(random, identityPool, number, createdOnDate));
+        }
+        return commits;
+    }
+
+    @Nonnull
+    private static Commit generateCommit(@Nonnull Random random, @Nonnull IdentityPool identityPool,
+                                         int number, long createdOnDate) {
+        Identity owner = getUser(identityPool, random.nextInt(USER_COUNT));
+        List<Identity> reviewers = new ArrayList<>();
+        for (int i = random.nextInt(MAX_REVIEWERS + 1); i > 0; --i) {
+            Identity reviewer = getUser(identityPool, random.nextInt(USER_COUNT));
+            if (!reviewers.contains(reviewer)) {
+                reviewers.add(reviewer);
+            }
+        }
+        boolean isMerged = random.nextInt(4) != 0;
+
+        List<PatchSet> patchSets = new ArrayList<>();
+        List<ChangeComment> changeComments = new ArrayList<>();
+        long patchSetDate = createdOnDate;
+        int patchSetCount = 1 + random.nextInt(MAX_PATCH_SETS);
+        for (int patchSetNumber = 1; patchSetNumber <= patchSetCount; ++patchSetNumber) {
+            List<Approval> approvals = new ArrayList<>();
+            List<PatchSetComment> comments = new ArrayList<>();
+            for (Identity reviewer : reviewers) {
+                long grantedOnDate = patchSetDate + random.nextInt((int) TimeUnit.HOURS.toMillis(30));
+                approvals.add(new Approval(Approval.TYPE_CODE_REVIEW, "Code-Review",
+                        random.nextInt(5) - 2, grantedOnDate, reviewer));
+                changeComments.add(new ChangeComment(grantedOnDate, reviewer,
+                        "Patch Set " + patchSetNumber + ": reviewed"));
+                for (int i = random.nextInt(MAX_COMMENTS + 1); i > 0; --i) {
+                    Identity commenter = random.nextBoolean() ? reviewer : owner;
+                    comments.add(new PatchSetComment("src/file" + random.nextInt(5) + ".c",
+                            random.nextInt(200), commenter, "Comment " + i, patchSetDate));
+                }
+            }
+            if (isMerged && patchSetNumber == patchSetCount) {
+                approvals.add(new Approval(Approval.TYPE_SUBMITTED, "Submitted", 1,
+                        patchSetDate + random.nextInt((int) TimeUnit.DAYS.toMillis(3)), reviewers.isEmpty()
+                                ? owner : reviewers.get(0)));
+            }
+            Identity author = random.nextInt(10) == 0 ? getUser(identityPool, random.nextInt(USER_COUNT)) : owner;
+            patchSets.add(new PatchSet(patchSetNumber, String.format("%040x", number * MAX_PATCH_SETS + patchSetNumber),
+                    ImmutableList.of(), String.format("refs/changes/%02d/%d/%d", number % 100, number, patchSetNumber),
+                    owner, patchSetDate, author, false,
+                    PatchSetKind.values()[random.nextInt(PatchSetKind.values().length)],
+                    approvals, comments, random.nextInt(300), -random.nextInt(100)));
+            patchSetDate += random.nextInt((int) TimeUnit.HOURS.toMillis(50));
+        }
+
+        return new Commit("project", random.nextInt(3) == 0 ? "dev" : "master", String.format("I%040x", number),
+                number, "Change " + number, owner, "https://gerrit.example.com/" + number, "Change " + number,
+                createdOnDate, patchSetDate, !isMerged, isMerged ? "MERGED" : "NEW",
+                reviewers, changeComments, patchSets);
+    }
+
+    @Nonnull
+    private static Identity getUser(@Nonnull IdentityPool identityPool, int user) {
+        return identityPool.get("User " + user, "user" + user + "@example.com", "user" + user);
+    }
+}
@@ -0,0 +1,88 @@
+package com.holmsted.gerrit.processors.perperson;
+
+import com.holmsted.gerrit.OutputRules;
+import com.holmsted.gerrit.QueryData;
+import com.holmsted.gerrit.TestData;
+import com.holmsted.gerrit.processors.CommitDataProcessor.OutputFormatter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.annotation.Nonnull;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class PerPersonDataProcessorTest {
+
+    private static final int COMMIT_COUNT = 300;
+    private static final long SEED = 42;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * Writes the output of the formatter into a directory of its own, and keeps the contents of the files
+     * it wrote, apart from the date the output was generated on.
+     */
+    private static class CapturingFormatter implements OutputFormatter<PerPersonData> {
+        @Nonnull
+        private final File outputDir;
+        @Nonnull
+        private final PerPersonJsonFormatter formatter;
+        @Nonnull
+        private final Map<String, String> files = new TreeMap<>();
+
+        CapturingFormatter(@Nonnull File outputDir) {
+            this.outputDir = outputDir;
+            this.formatter = new PerPersonJsonFormatter(TestData.createOutputRules(outputDir.getPath()));
+        }
+
+        @Override
+        public void format(@Nonnull PerPersonData data) {
+            formatter.format(data);
+            Path outputPath = outputDir.toPath();
+            try (Stream<Path> paths = Files.walk(outputPath)) {
+                for (Path path : paths.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                    String content = Files.readAllLines(path, StandardCharsets.UTF_8).stream()
+                            .filter(line -> !line.contains("\"generatedDate\""))
+                            .collect(Collectors.joining("\n"));
+                    files.put(outputPath.relativize(path).toString(), content);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    @Test
+    public void shardedOutputEqualsSerialOutput() throws IOException {
+        QueryData queryData = TestData.createQueryData(TestData.generateCommits(COMMIT_COUNT, SEED));
+
+        Map<String, String> serialFiles = process(queryData, Integer.MAX_VALUE);
+        assertFalse(serialFiles.isEmpty());
+        for (int shardSize : new int[] {1, 2, 7, 64}) {
+            assertEquals("Shard size " + shardSize, serialFiles, process(queryData, shardSize));
+        }
+    }
+
+    @Nonnull
+    private Map<String, String> process(@Nonnull QueryData queryData, int shardSize) throws IOException {
+        CapturingFormatter formatter = new CapturingFormatter(temporaryFolder.newFolder());
+        OutputRules outputRules = TestData.createOutputRules(formatter.outputDir.getPath());
+        new PerPersonDataProcessor(TestData.createCommitFilter(), outputRules, shardSize).process(formatter, queryData);
+        return formatter.files;
+    }
+}
@@ -2,4 +2,4 @@
 
 script_path="$(cd "$(dirname -- "$0")" || exit ; pwd -P)"
 
-java -Xmx4096m -Xms256m -jar "$script_path/GerritDownloader/build/libs/GerritDownloader.jar" "$@"
+java -Xms256m -jar "$script_path/GerritDownloader/build/libs/GerritDownloader.jar" "$@"